@@ -0,0 +1,187 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.impl.BlogHotRankingLoader;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DELTA_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @description 热门笔记排行: 从数据库加载排行后, 用lastId一页页翻到底
+ * 校验每篇笔记出现且只出现一次、点赞数不升, 输出前10页和最后10页的平均耗时; 点赞后排名跟着变
+ * 参数: -Dloadtest.hot.blogs=20000 -Dloadtest.hot.likers=2000
+ */
+@Slf4j
+class BlogHotLoadTest extends LoadTestSupport {
+    private static final int BLOGS = Integer.getInteger("loadtest.hot.blogs", 20000);
+    private static final int LIKERS = Integer.getInteger("loadtest.hot.likers", 2000);
+
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private BlogHotRankingLoader blogHotRankingLoader;
+
+    /**
+     * 上下文是共用的, 上一个测试的笔记要删掉
+     */
+    @BeforeEach
+    void clearBlogs() {
+        blogService.remove(new QueryWrapper<>());
+    }
+
+    @Test
+    void scrollsWholeRankingWithConstantPageCost() {
+        List<Blog> blogs = new ArrayList<>(BLOGS);
+        for (int i = 0; i < BLOGS; i++) {
+            blogs.add(new Blog().setShopId(1L).setUserId(1L).setTitle("压测笔记" + i).setImages("").setContent("")
+                    .setLiked(i % 500).setComments(0));
+        }
+        blogService.saveBatch(blogs);
+        stringRedisTemplate.delete(BLOG_HOT_KEY);
+        blogHotRankingLoader.load();
+        String token = login(1).get(0);
+
+        Set<Long> seen = new HashSet<>();
+        List<Long> pageNanos = new ArrayList<>();
+        long lastLiked = Long.MAX_VALUE;
+        Long lastId = null;
+        Integer offset = null;
+        while (true) {
+            String url = "http://127.0.0.1:" + port + "/blog/hot"
+                    + (lastId == null ? "" : "?lastId=" + lastId + "&offset=" + offset);
+            long begin = System.nanoTime();
+            Result result = send("GET", url, token);
+            pageNanos.add(System.nanoTime() - begin);
+            assertNotNull(result, "请求失败");
+            JSONObject data = JSONUtil.parseObj(result.getData());
+            JSONArray list = data.getJSONArray("list");
+            if (list.isEmpty()) {
+                break;
+            }
+            for (int i = 0; i < list.size(); i++) {
+                JSONObject blog = list.getJSONObject(i);
+                assertTrue(seen.add(blog.getLong("id")), "重复的笔记: " + blog.getLong("id"));
+                long liked = blog.getLong("liked");
+                assertTrue(liked <= lastLiked, "点赞数应该不升");
+                lastLiked = liked;
+                lastId = blog.getLong("id");
+            }
+            offset = data.getInt("offset");
+        }
+        assertEquals(BLOGS, seen.size(), "每篇笔记都应该翻到");
+        int pages = pageNanos.size() - 1;
+        log.info("热门笔记翻页: 笔记数 {}, 页数 {}, 前10页平均 {} ms, 最后10页平均 {} ms", BLOGS, pages,
+                millis(average(pageNanos.subList(1, Math.min(11, pages)))),
+                millis(average(pageNanos.subList(Math.max(1, pages - 10), pages))));
+
+        //排最后的笔记点一个赞, 排行马上跟着变, 不用等写库
+        Long tail = lastId;
+        Double before = stringRedisTemplate.opsForZSet().score(BLOG_HOT_KEY, tail.toString());
+        Result liked = send("PUT", "http://127.0.0.1:" + port + "/blog/like/" + tail, token);
+        assertTrue(liked != null && Boolean.TRUE.equals(liked.getSuccess()), "点赞失败");
+        Double after = stringRedisTemplate.opsForZSet().score(BLOG_HOT_KEY, tail.toString());
+        assertEquals(before + 1, after, "排行里的点赞数");
+
+        //第一页里点赞过的标记为已点赞, 其他的没有
+        String firstPage = "http://127.0.0.1:" + port + "/blog/hot";
+        Long head = JSONUtil.parseObj(send("GET", firstPage, token).getData()).getJSONArray("list").getJSONObject(0).getLong("id");
+        send("PUT", "http://127.0.0.1:" + port + "/blog/like/" + head, token);
+        JSONArray page = JSONUtil.parseObj(send("GET", firstPage, token).getData()).getJSONArray("list");
+        for (int i = 0; i < page.size(); i++) {
+            JSONObject blog = page.getJSONObject(i);
+            boolean expected = blog.getLong("id").equals(head) || blog.getLong("id").equals(tail);
+            assertEquals(expected, blog.getBool("isLike"), "笔记 " + blog.getLong("id") + " 的点赞标记");
+        }
+    }
+
+    /**
+     * 加载排行的同时并发点赞和发布笔记, 点赞数合并写库, 加载完之后排行里每篇笔记的点赞数都和数据库一致
+     */
+    @Test
+    void likesDuringLoadAreNotLost() throws Exception {
+        List<Blog> blogs = new ArrayList<>(BLOGS);
+        for (int i = 0; i < BLOGS; i++) {
+            blogs.add(new Blog().setShopId(1L).setUserId(1L).setTitle("压测笔记" + i).setImages("").setContent("")
+                    .setLiked(i % 500).setComments(0));
+        }
+        blogService.saveBatch(blogs);
+        stringRedisTemplate.delete(BLOG_HOT_KEY);
+        List<String> tokens = login(LIKERS);
+        //每个用户给随机的一篇笔记点赞, 中间穿插发布新笔记
+        Random random = new Random(42);
+        List<String> requests = new ArrayList<>();
+        List<String> urls = new ArrayList<>();
+        for (String token : tokens) {
+            requests.add(token);
+            urls.add("http://127.0.0.1:" + port + "/blog/like/" + blogs.get(random.nextInt(BLOGS)).getId());
+        }
+        AtomicInteger errors = new AtomicInteger();
+        Thread likers = new Thread(() -> {
+            UserDTO author = new UserDTO();
+            author.setId(1L);
+            UserHolder.saveUser(author);
+            for (int i = 0; i < requests.size(); i++) {
+                if (send("PUT", urls.get(i), requests.get(i)) == null) {
+                    errors.incrementAndGet();
+                }
+                if (i % (requests.size() / 10) == 0) {
+                    blogService.saveBlog(new Blog().setShopId(1L).setTitle("新笔记").setImages("").setContent(""));
+                }
+            }
+            UserHolder.removeUser();
+        });
+        likers.start();
+        blogHotRankingLoader.load();
+        likers.join();
+        assertEquals(0, errors.get(), "点赞请求异常");
+        //等点赞数全部写库, 最后一批取出的变化可能还在写
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        int mismatched;
+        while ((mismatched = mismatched()) != 0 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        log.info("加载期间点赞 {} 次, 排行和数据库不一致的笔记 {}", LIKERS, mismatched);
+        assertEquals(0, mismatched, "排行和数据库的点赞数应该一致");
+    }
+
+    private int mismatched() {
+        if (stringRedisTemplate.opsForHash().size(BLOG_LIKED_DELTA_KEY) > 0) {
+            return -1;
+        }
+        int mismatched = 0;
+        for (Blog blog : blogService.query().select("id", "liked").list()) {
+            Double score = stringRedisTemplate.opsForZSet().score(BLOG_HOT_KEY, blog.getId().toString());
+            if (score == null || score.intValue() != blog.getLiked()) {
+                mismatched++;
+            }
+        }
+        return mismatched;
+    }
+
+    private static long average(List<Long> values) {
+        return (long) values.stream().mapToLong(Long::longValue).average().orElse(0);
+    }
+}
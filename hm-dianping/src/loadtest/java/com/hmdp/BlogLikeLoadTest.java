@@ -0,0 +1,75 @@
+package com.hmdp;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @description 点赞压测: 所有用户并发给同一篇笔记点赞, 第i个用户点 i%3+1 次(点两次等于取消)
+ * 校验redis里点赞的用户数和合并写库之后的liked都等于点了奇数次的用户数, 原来的点赞数保留
+ * 参数: -Dloadtest.like.users=2000
+ */
+@Slf4j
+@TestPropertySource(properties = "hmdp.blog.like-flush-millis=200")
+class BlogLikeLoadTest extends LoadTestSupport {
+    private static final int USERS = Integer.getInteger("loadtest.like.users", 2000);
+    private static final int INITIAL_LIKED = 100;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Test
+    void likesAreToggledAndCoalesced() throws Exception {
+        Blog blog = new Blog().setShopId(1L).setUserId(1L).setTitle("压测笔记").setImages("").setContent("")
+                .setLiked(INITIAL_LIKED).setComments(0);
+        blogService.save(blog);
+        List<String> tokens = login(USERS);
+        List<String> requests = new ArrayList<>();
+        int expected = 0;
+        for (int i = 0; i < USERS; i++) {
+            int clicks = i % 3 + 1;
+            for (int c = 0; c < clicks; c++) {
+                requests.add(tokens.get(i));
+            }
+            expected += clicks % 2;
+        }
+        Collections.shuffle(requests);
+
+        long[] latencies = new long[requests.size()];
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        long elapsed = run("PUT", "http://127.0.0.1:" + port + "/blog/like/" + blog.getId(),
+                requests, latencies, succeeded, errors);
+        Arrays.sort(latencies);
+        log.info("点赞压测: 用户数 {}, 请求数 {}, 并发 {}, 吞吐量 {} req/s, p50 {} ms, p99 {} ms",
+                USERS, requests.size(), CONCURRENCY, String.format("%.1f", requests.size() * 1e9 / elapsed),
+                millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)));
+        assertEquals(0, errors.get(), "请求异常");
+        assertEquals(requests.size(), succeeded.get(), "点赞请求都应该成功");
+
+        Long members = stringRedisTemplate.opsForZSet().zCard(BLOG_LIKED_KEY + blog.getId());
+        assertEquals(expected, members == null ? 0 : members.intValue(), "redis里点赞的用户数");
+
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        int liked;
+        while ((liked = blogService.getById(blog.getId()).getLiked()) != INITIAL_LIKED + expected
+                && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        log.info("点赞的用户 {}, 数据库点赞数 {}", expected, liked);
+        assertEquals(INITIAL_LIKED + expected, liked, "合并写库后的点赞数");
+    }
+}
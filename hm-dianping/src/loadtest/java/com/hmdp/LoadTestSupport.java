@@ -0,0 +1,258 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.LoginTokenService;
+import com.hmdp.utils.SeckillStock;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @description 压测的公共部分: 嵌入式redis、登录、并发发请求、等订单落库
+ * 所有压测类共用一个redis, 每个类用自己的spring上下文, 跑完关闭上下文并清空redis, 互不影响
+ */
+@Slf4j
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+abstract class LoadTestSupport {
+    protected static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 200);
+    /**
+     * 等订单从stream落库的最长时间
+     */
+    protected static final long DRAIN_TIMEOUT_MILLIS = Long.getLong("loadtest.drainTimeoutMillis", 60_000);
+
+    private static final int REDIS_PORT = freePort();
+    private static final RedisServer REDIS_SERVER = startRedis(REDIS_PORT);
+
+    @LocalServerPort
+    protected int port;
+    @Resource
+    protected IVoucherService voucherService;
+    @Resource
+    protected ISeckillVoucherService seckillVoucherService;
+    @Resource
+    protected IVoucherOrderService voucherOrderService;
+    @Resource
+    protected LoginTokenService loginTokenService;
+    @Resource
+    protected SeckillStock seckillStock;
+    @Resource
+    protected StringRedisTemplate stringRedisTemplate;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.port", () -> REDIS_PORT);
+    }
+
+    /**
+     * H2每个上下文重新建表, 券id会从头开始, redis里上一个类留下的库存和下单记录要清掉
+     */
+    @AfterEach
+    void flushRedis() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.flushAll();
+            return null;
+        });
+    }
+
+    protected Voucher createSeckillVoucher(int stock, Integer shards) {
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("压测秒杀券")
+                .setPayValue(100L)
+                .setActualValue(1000L)
+                .setType(1)
+                .setStatus(1)
+                .setStock(stock)
+                .setStockShards(shards)
+                .setBeginTime(LocalDateTime.now().minusHours(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher;
+    }
+
+    /**
+     * 登录id为1~users的用户
+     * @return 每个用户的token
+     */
+    protected List<String> login(int users) {
+        List<String> tokens = new ArrayList<>(users);
+        for (long userId = 1; userId <= users; userId++) {
+            UserDTO user = new UserDTO();
+            user.setId(userId);
+            user.setNickName("user_" + userId);
+            tokens.add(loginTokenService.createToken(user));
+        }
+        return tokens;
+    }
+
+    protected String seckillUrl(Long voucherId) {
+        return "http://127.0.0.1:" + port + "/voucher-order/seckill/" + voucherId;
+    }
+
+    /**
+     * CONCURRENCY个线程一起把requests发完
+     * @return 总耗时, 纳秒
+     */
+    protected static long run(String url, List<String> requests, long[] latencies,
+                              AtomicInteger succeeded, AtomicInteger errors) throws InterruptedException {
+        return run("POST", url, requests, latencies, succeeded, errors);
+    }
+
+    protected static long run(String method, String url, List<String> requests, long[] latencies,
+                              AtomicInteger succeeded, AtomicInteger errors) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(CONCURRENCY);
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        for (int t = 0; t < CONCURRENCY; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests.size()) {
+                        long begin = System.nanoTime();
+                        Result result = send(method, url, requests.get(i));
+                        latencies[i] = System.nanoTime() - begin;
+                        if (result == null) {
+                            errors.incrementAndGet();
+                        } else if (Boolean.TRUE.equals(result.getSuccess())) {
+                            succeeded.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        return elapsed;
+    }
+
+    /**
+     * 等stream里的订单落库
+     * @return 最后一次查到的订单数
+     */
+    protected int awaitOrders(Long voucherId, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        int persisted;
+        while ((persisted = voucherOrderService.query().eq("voucher_id", voucherId).count()) < expected
+                && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return persisted;
+    }
+
+    /**
+     * @return 响应体解析出的Result, 网络异常或者非200返回null
+     */
+    protected static Result post(String url, String token) {
+        return send("POST", url, token);
+    }
+
+    protected static Result send(String method, String url, String token) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setRequestMethod(method);
+            conn.setRequestProperty("authorization", token);
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(30_000);
+            if (conn.getResponseCode() != 200) {
+                log.warn("请求失败, status: {}", conn.getResponseCode());
+                return null;
+            }
+            try (InputStream in = conn.getInputStream()) {
+                return JSONUtil.toBean(read(in), Result.class);
+            }
+        } catch (IOException e) {
+            log.warn("请求异常, {}", e.toString());
+            return null;
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    protected static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    protected static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 所有压测类跑完之后JVM退出时再停
+     */
+    private static RedisServer startRedis(int port) {
+        try {
+            RedisServer server = new RedisServer(port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.stop();
+                } catch (IOException e) {
+                    log.warn("嵌入式redis停止失败, {}", e.toString());
+                }
+            }));
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException("嵌入式redis启动失败", e);
+        }
+    }
+}
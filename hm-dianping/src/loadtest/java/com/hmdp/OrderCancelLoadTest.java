@@ -0,0 +1,61 @@
+package com.hmdp;
+
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @description 超时未支付订单的批量取消: 下单后不支付, 超时后订单全部改成已取消, 数据库和redis的库存都还回去, 用户可以重新抢
+ * 输出从第一单被取消到全部取消的耗时和每秒取消数
+ * 参数: -Dloadtest.cancel.orders=2000
+ */
+@Slf4j
+@TestPropertySource(properties = {
+        "hmdp.seckill.unpaid-timeout-seconds=3",
+        "hmdp.seckill.cancel-poll-millis=200"
+})
+class OrderCancelLoadTest extends LoadTestSupport {
+    private static final int ORDERS = Integer.getInteger("loadtest.cancel.orders", 2000);
+    private static final int STATUS_CANCELED = 4;
+
+    @Test
+    void unpaidOrdersAreCanceledAndStockReturned() throws Exception {
+        Long voucherId = createSeckillVoucher(ORDERS, null).getId();
+        List<String> tokens = login(ORDERS);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        run(seckillUrl(voucherId), tokens, new long[tokens.size()], succeeded, errors);
+        assertEquals(ORDERS, succeeded.get(), "下单成功数");
+        assertEquals(ORDERS, awaitOrders(voucherId, ORDERS), "落库订单数");
+
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        long firstCanceledAt = 0;
+        int canceled;
+        while ((canceled = voucherOrderService.query().eq("voucher_id", voucherId)
+                .eq("status", STATUS_CANCELED).count()) < ORDERS && System.currentTimeMillis() < deadline) {
+            if (canceled > 0 && firstCanceledAt == 0) {
+                firstCanceledAt = System.currentTimeMillis();
+            }
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - (firstCanceledAt == 0 ? System.currentTimeMillis() : firstCanceledAt));
+        log.info("取消订单 {}, 耗时 {} ms, {} 单/s, 数据库库存 {}, redis库存 {}", canceled, elapsed,
+                String.format("%.1f", canceled * 1000.0 / elapsed),
+                seckillVoucherService.getById(voucherId).getStock(), seckillStock.totalStock(voucherId));
+
+        assertEquals(ORDERS, canceled, "超时订单应该全部取消");
+        assertEquals(ORDERS, seckillVoucherService.getById(voucherId).getStock(), "数据库库存应该全部还回去");
+        assertEquals(ORDERS, seckillStock.totalStock(voucherId), "redis库存应该全部还回去");
+        //取消之后一人一单的记录也删了, 同一个用户可以重新抢
+        Result again = post(seckillUrl(voucherId), tokens.get(0));
+        assertTrue(again != null && Boolean.TRUE.equals(again.getSuccess()), "取消后应该可以重新下单");
+    }
+}
@@ -0,0 +1,52 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @description redis和数据库库存不一致: redis的库存比数据库多, 多出来的订单写进死信stream,
+ * redis的库存和一人一单的记录还回去, 消息全部确认, 不会留在pending-list里也不会被当成已落库
+ * 参数: -Dloadtest.dead.stock=100
+ */
+@Slf4j
+class OrderDeadLetterLoadTest extends LoadTestSupport {
+    private static final int DB_STOCK = Integer.getInteger("loadtest.dead.stock", 100);
+
+    @Test
+    void ordersBeyondDbStockAreDeadLettered() throws Exception {
+        Long voucherId = createSeckillVoucher(DB_STOCK, null).getId();
+        //redis里多放一倍库存
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucherId, String.valueOf(DB_STOCK * 2));
+        List<String> tokens = login(DB_STOCK * 2);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        run(seckillUrl(voucherId), tokens, new long[tokens.size()], succeeded, errors);
+        assertEquals(DB_STOCK * 2, succeeded.get(), "redis里都能抢到");
+
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        Long dead;
+        while (((dead = stringRedisTemplate.opsForStream().size(RedisConstants.SECKILL_ORDER_DEAD_STREAM)) == null
+                || dead < DB_STOCK) && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        int persisted = awaitOrders(voucherId, DB_STOCK);
+        Long members = stringRedisTemplate.opsForSet().size(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+        log.info("落库订单 {}, 死信 {}, redis库存 {}, 一人一单记录 {}", persisted, dead,
+                seckillStock.totalStock(voucherId), members);
+
+        assertEquals(DB_STOCK, persisted, "落库订单数等于数据库库存");
+        assertEquals(DB_STOCK, dead, "多出来的订单进死信");
+        assertEquals(0, seckillVoucherService.getById(voucherId).getStock(), "数据库库存");
+        assertEquals(DB_STOCK, seckillStock.totalStock(voucherId), "死信订单的redis库存还回去");
+        assertEquals(DB_STOCK, members == null ? 0 : members.intValue(), "死信订单的一人一单记录删掉");
+        assertEquals(0, stringRedisTemplate.opsForStream().pending(RedisConstants.SECKILL_ORDER_STREAM,
+                RedisConstants.SECKILL_ORDER_GROUP).getTotalPendingMessages(), "消息都已确认");
+    }
+}
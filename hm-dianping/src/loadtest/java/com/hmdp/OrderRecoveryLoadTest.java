@@ -0,0 +1,54 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @description 挂掉的节点留在pending-list里的订单: 用一个不存在的消费者读走订单不确认, 模拟节点读完就挂了
+ * 校验空闲超过pending-idle-seconds后被认领写库, pending-list清空
+ * 参数: -Dloadtest.recovery.orders=500
+ */
+@Slf4j
+@TestPropertySource(properties = {
+        "hmdp.seckill.pending-idle-seconds=1",
+        "hmdp.seckill.pending-scan-millis=500"
+})
+class OrderRecoveryLoadTest extends LoadTestSupport {
+    private static final int ORDERS = Integer.getInteger("loadtest.recovery.orders", 500);
+
+    @Test
+    void pendingOrdersOfDeadConsumerAreClaimed() throws Exception {
+        Long voucherId = createSeckillVoucher(ORDERS, null).getId();
+        for (int i = 1; i <= ORDERS; i++) {
+            Map<String, String> order = new HashMap<>();
+            order.put("userId", String.valueOf(i));
+            order.put("voucherId", voucherId.toString());
+            order.put("id", String.valueOf(1_000_000L + i));
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(RedisConstants.SECKILL_ORDER_STREAM).ofMap(order));
+        }
+        //换了主机名的容器不会再用这个名字读
+        stringRedisTemplate.opsForStream().read(Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, "dead-host-0"),
+                StreamReadOptions.empty().count(ORDERS),
+                StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+
+        long begin = System.currentTimeMillis();
+        int persisted = awaitOrders(voucherId, ORDERS);
+        log.info("认领挂掉的消费者的订单 {} 条, 耗时 {} ms", persisted, System.currentTimeMillis() - begin);
+        assertEquals(ORDERS, persisted, "pending-list里的订单都应该写库");
+        assertEquals(0, stringRedisTemplate.opsForStream().pending(RedisConstants.SECKILL_ORDER_STREAM,
+                RedisConstants.SECKILL_ORDER_GROUP).getTotalPendingMessages(), "pending-list应该清空");
+        assertEquals(0, seckillVoucherService.getById(voucherId).getStock(), "数据库库存");
+    }
+}
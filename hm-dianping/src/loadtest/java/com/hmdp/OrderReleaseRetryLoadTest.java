@@ -0,0 +1,60 @@
+package com.hmdp;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.SeckillStock;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+
+/**
+ * @description 超时取消后第一次归还redis库存失败: 数据库已经取消, redis的库存和一人一单记录要由重试队列还回去
+ * 参数: -Dloadtest.release.orders=200
+ */
+@Slf4j
+@TestPropertySource(properties = {
+        "hmdp.seckill.unpaid-timeout-seconds=2",
+        "hmdp.seckill.cancel-poll-millis=200"
+})
+class OrderReleaseRetryLoadTest extends LoadTestSupport {
+    private static final int ORDERS = Integer.getInteger("loadtest.release.orders", 200);
+
+    @SpyBean
+    private SeckillStock spiedStock;
+
+    @Test
+    void failedReleaseIsRetried() throws Exception {
+        Long voucherId = createSeckillVoucher(ORDERS, null).getId();
+        List<String> tokens = login(ORDERS);
+        AtomicInteger succeeded = new AtomicInteger();
+        run(seckillUrl(voucherId), tokens, new long[tokens.size()], succeeded, new AtomicInteger());
+        assertEquals(ORDERS, succeeded.get(), "下单成功数");
+        assertEquals(ORDERS, awaitOrders(voucherId, ORDERS), "落库订单数");
+        //第一次归还失败, 之后恢复
+        doThrow(new RedisSystemException("模拟redis超时", null)).doCallRealMethod()
+                .when(spiedStock).release(any(), anyList());
+
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        Integer stock;
+        while (((stock = seckillStock.totalStock(voucherId)) == null || stock < ORDERS)
+                && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        log.info("数据库库存 {}, redis库存 {}", seckillVoucherService.getById(voucherId).getStock(), stock);
+        assertEquals(ORDERS, seckillVoucherService.getById(voucherId).getStock(), "数据库库存");
+        assertEquals(ORDERS, stock, "redis库存应该由重试全部还回去");
+        Result again = post(seckillUrl(voucherId), tokens.get(0));
+        assertTrue(again != null && Boolean.TRUE.equals(again.getSuccess()), "一人一单记录删掉后可以重新下单");
+    }
+}
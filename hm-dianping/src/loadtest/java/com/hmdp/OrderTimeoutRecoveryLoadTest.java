@@ -0,0 +1,71 @@
+package com.hmdp;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @description 订单落库提交之后、放进超时队列之前节点挂了: 先直接写库, 再用一个不存在的消费者读走消息不确认
+ * 校验消息被认领后订单按重复跳过, 但仍然补放进超时队列, 不会一直占着库存
+ * 参数: -Dloadtest.recovery.orders=500
+ */
+@Slf4j
+@TestPropertySource(properties = {
+        "hmdp.seckill.pending-idle-seconds=1",
+        "hmdp.seckill.pending-scan-millis=500"
+})
+class OrderTimeoutRecoveryLoadTest extends LoadTestSupport {
+    private static final int ORDERS = Integer.getInteger("loadtest.recovery.orders", 500);
+
+    @Test
+    void persistedOrdersMissingTimeoutAreScheduledOnRedelivery() throws Exception {
+        Long voucherId = createSeckillVoucher(ORDERS, null).getId();
+        List<VoucherOrder> orders = new ArrayList<>(ORDERS);
+        for (int i = 1; i <= ORDERS; i++) {
+            orders.add(new VoucherOrder().setId(1_000_000L + i).setUserId((long) i).setVoucherId(voucherId));
+        }
+        voucherOrderService.createVoucherOrders(orders);
+        for (VoucherOrder order : orders) {
+            Map<String, String> value = new HashMap<>();
+            value.put("userId", order.getUserId().toString());
+            value.put("voucherId", voucherId.toString());
+            value.put("id", order.getId().toString());
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(RedisConstants.SECKILL_ORDER_STREAM).ofMap(value));
+        }
+        stringRedisTemplate.opsForStream().read(Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, "dead-host-0"),
+                StreamReadOptions.empty().count(ORDERS),
+                StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+
+        long begin = System.currentTimeMillis();
+        long deadline = begin + DRAIN_TIMEOUT_MILLIS;
+        while (pending() > 0 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        long missing = orders.stream().filter(order -> stringRedisTemplate.opsForZSet()
+                .score(RedisConstants.ORDER_TIMEOUT_KEY, order.getId().toString()) == null).count();
+        log.info("认领已落库的订单 {} 条, 耗时 {} ms, 没有超时任务的 {} 条", ORDERS, System.currentTimeMillis() - begin, missing);
+        assertEquals(0, pending(), "pending-list应该清空");
+        assertEquals(0, missing, "重复投递的订单都应该放进超时队列");
+        assertEquals(ORDERS, voucherOrderService.query().eq("voucher_id", voucherId).count(), "不会重复写库");
+    }
+
+    private long pending() {
+        return stringRedisTemplate.opsForStream().pending(RedisConstants.SECKILL_ORDER_STREAM,
+                RedisConstants.SECKILL_ORDER_GROUP).getTotalPendingMessages();
+    }
+}
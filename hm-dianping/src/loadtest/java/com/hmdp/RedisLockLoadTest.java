@@ -0,0 +1,174 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.RedisScripts;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @description 分布式锁: 重入计数、看门狗续期、只有持有者能释放、释放通知唤醒等待的线程, 以及并发抢同一把锁时的互斥和吞吐
+ * 租期调成3秒, 续期和唤醒都能在几秒内看出来
+ * 参数: -Dloadtest.lock.rounds=50
+ */
+@Slf4j
+@TestPropertySource(properties = "hmdp.lock.lease-millis=" + RedisLockLoadTest.LEASE_MILLIS)
+class RedisLockLoadTest extends LoadTestSupport {
+    static final long LEASE_MILLIS = 3000;
+    private static final int ROUNDS = Integer.getInteger("loadtest.lock.rounds", 50);
+
+    @Resource
+    private RedisLockClient redisLockClient;
+    @Resource
+    private RedisScripts redisScripts;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 模拟同一个节点上的其他线程
+     */
+    private final ExecutorService other = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdownOther() {
+        other.shutdownNow();
+    }
+
+    @Test
+    void reentrantCountIsTracked() {
+        RedisLock lock = redisLockClient.getLock("lock:test:reentrant");
+        String owner = redisLockClient.owner();
+        assertTrue(lock.tryLock());
+        assertTrue(lock.tryLock(), "同一个线程可以重入");
+        assertEquals("2", stringRedisTemplate.opsForHash().get(lock.getKey(), owner));
+        lock.unlock();
+        assertEquals("1", stringRedisTemplate.opsForHash().get(lock.getKey(), owner), "重入一次释放一次");
+        lock.unlock();
+        assertFalse(stringRedisTemplate.hasKey(lock.getKey()), "重入次数减到0才删除");
+    }
+
+    @Test
+    void watchdogRenewsPastLease() throws Exception {
+        RedisLock lock = redisLockClient.getLock("lock:test:watchdog");
+        assertTrue(lock.tryLock());
+        try {
+            //持有超过三个租期
+            TimeUnit.MILLISECONDS.sleep(LEASE_MILLIS * 3 + 500);
+            Long ttl = stringRedisTemplate.getExpire(lock.getKey(), TimeUnit.MILLISECONDS);
+            assertNotNull(ttl);
+            assertTrue(ttl > 0, "看门狗续期之后锁还在, ttl: " + ttl);
+            assertFalse(other.submit(() -> lock.tryLock()).get(), "续期期间其他线程拿不到");
+        } finally {
+            lock.unlock();
+        }
+        assertFalse(stringRedisTemplate.hasKey(lock.getKey()));
+    }
+
+    @Test
+    void onlyOwnerCanUnlock() throws Exception {
+        RedisLock lock = redisLockClient.getLock("lock:test:owner");
+        String owner = redisLockClient.owner();
+        assertTrue(lock.tryLock());
+        try {
+            //同一个节点的其他线程
+            other.submit(lock::unlock).get(10, TimeUnit.SECONDS);
+            assertEquals("1", stringRedisTemplate.opsForHash().get(lock.getKey(), owner), "其他线程释放不掉");
+            //其他节点
+            RedisLockClient otherNode = new RedisLockClient(redisScripts, listenerContainer, LEASE_MILLIS);
+            try {
+                RedisLock otherLock = otherNode.getLock(lock.getKey());
+                assertFalse(otherLock.tryLock(), "其他节点拿不到");
+                otherLock.unlock();
+                assertEquals("1", stringRedisTemplate.opsForHash().get(lock.getKey(), owner), "其他节点释放不掉");
+            } finally {
+                otherNode.shutdown();
+            }
+        } finally {
+            lock.unlock();
+        }
+        assertFalse(stringRedisTemplate.hasKey(lock.getKey()));
+    }
+
+    @Test
+    void waiterWakesUpOnRelease() throws Exception {
+        RedisLock lock = redisLockClient.getLock("lock:test:waiter");
+        assertTrue(lock.tryLock());
+        CountDownLatch waiting = new CountDownLatch(1);
+        Future<Long> acquiredAt = other.submit(() -> {
+            waiting.countDown();
+            //最多等10秒, 收不到通知的话要等到锁过期(接近一个租期)
+            assertTrue(lock.tryLock(10, TimeUnit.SECONDS));
+            long at = System.currentTimeMillis();
+            lock.unlock();
+            return at;
+        });
+        waiting.await();
+        TimeUnit.MILLISECONDS.sleep(200);
+        long releasedAt = System.currentTimeMillis();
+        lock.unlock();
+        long wakeup = acquiredAt.get(10, TimeUnit.SECONDS) - releasedAt;
+        log.info("释放锁之后 {} ms 等待的线程拿到锁", wakeup);
+        assertTrue(wakeup < LEASE_MILLIS / 3, "释放通知应该立刻唤醒等待的线程, 实际 " + wakeup + " ms");
+    }
+
+    @Test
+    void contendedLockIsMutuallyExclusive() throws Exception {
+        RedisLock lock = redisLockClient.getLock("lock:test:contended");
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        AtomicInteger acquired = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENCY);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int j = 0; j < ROUNDS; j++) {
+                    if (!lock.tryLock(30, TimeUnit.SECONDS)) {
+                        continue;
+                    }
+                    try {
+                        maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                        acquired.incrementAndGet();
+                        inside.decrementAndGet();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        long cost = System.nanoTime() - begin;
+        pool.shutdown();
+        log.info("{} 个线程抢同一把锁各 {} 次, 拿到 {} 次, 耗时 {}, {} 次/秒", CONCURRENCY, ROUNDS, acquired.get(),
+                millis(cost), (long) (acquired.get() / (cost / 1e9)));
+        assertEquals(1, maxInside.get(), "同一时刻只有一个线程持有锁");
+        assertEquals(CONCURRENCY * ROUNDS, acquired.get(), "等待的线程都能被唤醒拿到锁");
+        assertNull(stringRedisTemplate.opsForHash().get(lock.getKey(), redisLockClient.owner()));
+        assertFalse(stringRedisTemplate.hasKey(lock.getKey()));
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @description 秒杀压测和超卖校验, 不需要外部的mysql和redis: mvn test -Ploadtest
+ * 启动嵌入式redis和H2(MySQL模式), 并发请求 /voucher-order/seckill/{id}, 输出吞吐量和p50/p99/p999延迟
+ * 订单全部落库之后校验: 订单数 == 初始库存, 每个用户最多一单, 数据库和redis的库存都扣到0
+ * 参数: -Dloadtest.users=2000 -Dloadtest.stock=100 -Dloadtest.concurrency=200 -Dloadtest.attempts=2 -Dloadtest.shards=0
+ */
+@Slf4j
+class SeckillLoadTest extends LoadTestSupport {
+    private static final int USERS = Integer.getInteger("loadtest.users", 2000);
+    private static final int STOCK = Integer.getInteger("loadtest.stock", 100);
+    /**
+     * 每个用户请求几次, 大于1时同一个用户会并发重复下单, 用来验证一人一单
+     */
+    private static final int ATTEMPTS = Integer.getInteger("loadtest.attempts", 2);
+    /**
+     * 库存分片数, 0表示不分片
+     */
+    private static final int SHARDS = Integer.getInteger("loadtest.shards", 0);
+    /**
+     * 正式压测前的预热请求数, 打到不存在的券上, 不影响库存
+     */
+    private static final int WARMUP = Integer.getInteger("loadtest.warmup", 1000);
+
+    @Test
+    void seckillWithoutOversell() throws Exception {
+        Long voucherId = createSeckillVoucher(STOCK, SHARDS > 0 ? SHARDS : null).getId();
+        List<String> tokens = login(USERS);
+        //同一个用户的多次请求打散, 和其他用户的请求交错
+        List<String> requests = new ArrayList<>(USERS * ATTEMPTS);
+        for (int i = 0; i < ATTEMPTS; i++) {
+            requests.addAll(tokens);
+        }
+        Collections.shuffle(requests);
+
+        //预热jit、连接池和登录缓存, 不计入结果
+        int warmup = Math.min(WARMUP, tokens.size());
+        run(seckillUrl(Long.MAX_VALUE), tokens.subList(0, warmup), new long[warmup], new AtomicInteger(), new AtomicInteger());
+
+        long[] latencies = new long[requests.size()];
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        long elapsed = run(seckillUrl(voucherId), requests, latencies, succeeded, errors);
+
+        Arrays.sort(latencies);
+        log.info("秒杀压测: 用户数 {}, 库存 {}, 并发 {}, 请求数 {}, 成功 {}, 异常 {}",
+                USERS, STOCK, CONCURRENCY, requests.size(), succeeded.get(), errors.get());
+        log.info("吞吐量 {} req/s, p50 {} ms, p99 {} ms, p999 {} ms, max {} ms",
+                String.format("%.1f", requests.size() * 1e9 / elapsed),
+                millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                millis(percentile(latencies, 0.999)), millis(latencies[latencies.length - 1]));
+
+        int expected = Math.min(STOCK, USERS);
+        assertEquals(0, errors.get(), "请求异常");
+        assertEquals(expected, succeeded.get(), "下单成功数应该等于库存");
+
+        int persisted = awaitOrders(voucherId, expected);
+        List<VoucherOrder> orders = voucherOrderService.query().eq("voucher_id", voucherId).list();
+        Map<Long, Long> ordersPerUser = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getUserId, Collectors.counting()));
+        List<Long> duplicated = ordersPerUser.entrySet().stream()
+                .filter(e -> e.getValue() > 1)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        log.info("落库订单 {}, 下单用户 {}, 数据库剩余库存 {}, redis剩余库存 {}",
+                persisted, ordersPerUser.size(), seckillVoucher.getStock(), seckillStock.totalStock(voucherId));
+
+        assertEquals(expected, orders.size(), "订单数应该等于初始库存");
+        assertTrue(duplicated.isEmpty(), "一人多单: " + duplicated);
+        assertEquals(STOCK - expected, seckillVoucher.getStock(), "数据库库存");
+        assertEquals(STOCK - expected, seckillStock.totalStock(voucherId), "redis库存");
+    }
+}
@@ -0,0 +1,86 @@
+package com.hmdp;
+
+import com.hmdp.config.ShopCacheRunner;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @description 其他节点新增店铺的广播丢了: 直接写库不广播, 本节点的布隆过滤器判断为不存在
+ * 校验定时补加之后这些店铺都能查到; 新增店铺时之前缓存的空值被删掉
+ * 参数: -Dloadtest.bloom.shops=1000
+ */
+@Slf4j
+@TestPropertySource(properties = "hmdp.cache.bloom.resync-millis=3600000")
+class ShopBloomResyncLoadTest extends LoadTestSupport {
+    private static final int SHOPS = Integer.getInteger("loadtest.bloom.shops", 1000);
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private ShopCacheRunner shopCacheRunner;
+
+    @Test
+    void shopsMissedByBroadcastAreResynced() {
+        List<Shop> shops = new ArrayList<>(SHOPS);
+        for (int i = 0; i < SHOPS; i++) {
+            shops.add(shop("补加店铺" + i));
+        }
+        shopService.saveBatch(shops);
+        assertEquals(SHOPS, notFound(shops), "没有广播, 布隆过滤器里还没有");
+
+        long begin = System.currentTimeMillis();
+        shopCacheRunner.resyncBloomFilter();
+        log.info("补加 {} 个店铺id, 耗时 {} ms", SHOPS, System.currentTimeMillis() - begin);
+        assertEquals(0, notFound(shops), "补加之后都能查到");
+    }
+
+    @Test
+    void savingShopRemovesCachedNullValue() {
+        //自增id, 新店铺会拿到当前最大id + 1, 这个id之前被查过, 缓存了空值
+        Shop last = shopService.query().select("id").orderByDesc("id").last("limit 1").one();
+        long nextId = last == null ? 1 : last.getId() + 1;
+        //json格式的key不带版本标记, binary格式的带 @b1
+        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + nextId, "");
+        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + nextId + "@" + new BinaryCacheCodec().version(), "");
+        Shop shop = shop("新店铺");
+        shopService.saveShop(shop);
+        assertEquals(nextId, shop.getId());
+        Result result = send("GET", shopUrl(shop.getId()), null);
+        assertNotNull(result);
+        assertTrue(result.getSuccess(), "新增的店铺应该能查到");
+    }
+
+    private int notFound(List<Shop> shops) {
+        int notFound = 0;
+        for (Shop shop : shops) {
+            Result result = send("GET", shopUrl(shop.getId()), null);
+            if (result == null || !result.getSuccess()) {
+                notFound++;
+            }
+        }
+        return notFound;
+    }
+
+    private String shopUrl(Long id) {
+        return "http://localhost:" + port + "/shop/" + id;
+    }
+
+    private static Shop shop(String name) {
+        return new Shop().setName(name).setTypeId(1L).setImages("").setAddress("压测路1号")
+                .setX(120.149192).setY(30.316078).setSold(0).setComments(0).setScore(40);
+    }
+}
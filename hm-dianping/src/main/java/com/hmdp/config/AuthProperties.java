@@ -0,0 +1,55 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * @description 登录相关配置, 对应application.yaml中的hmdp.auth
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.auth")
+public class AuthProperties {
+
+    /**
+     * 新签发的token类型: redis 或 signed, 两种token校验时都认
+     */
+    private String tokenMode = "redis";
+
+    /**
+     * 签名token的配置
+     */
+    private Signed signed = new Signed();
+
+    /**
+     * 进程内的登录信息缓存, 位于redis的login:token:之前
+     */
+    private Session session = new Session();
+
+    @Data
+    public static class Session {
+        private boolean enabled = true;
+        /**
+         * 本地缓存多少秒, 兜底防止丢失失效消息时一直用旧的登录信息
+         */
+        private long localTtlSeconds = 30;
+        private long maximumSize = 100_000;
+        /**
+         * redis里token剩余有效期低于多少分钟才续期, 不用每个请求都EXPIRE
+         */
+        private long refreshThresholdMinutes = 20;
+    }
+
+    @Data
+    public static class Signed {
+        /**
+         * HmacSHA256的密钥, 至少32个字符, 所有节点必须一样
+         */
+        private String secret;
+        /**
+         * 签名token的有效期, 签发之后不能续期
+         */
+        private long expireMinutes = 24 * 60;
+    }
+}
@@ -0,0 +1,19 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * @description 探店笔记相关配置, 对应application.yaml中的hmdp.blog
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.blog")
+public class BlogProperties {
+
+    /**
+     * 点赞数多久合并写一次库, 毫秒; 数据库里的点赞数最多落后这么久
+     */
+    private long likeFlushMillis = 1000;
+}
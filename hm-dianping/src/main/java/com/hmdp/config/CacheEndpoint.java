@@ -0,0 +1,37 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildScheduler;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @description actuator端点 /actuator/cache, 汇总缓存的命中率、查库耗时、重建线程池、布隆过滤器和过期分布
+ * 单个指标也可以在 /actuator/metrics/cache.requests?tag=prefix:cache:shop: 查看
+ */
+@Component
+@Endpoint(id = "cache")
+public class CacheEndpoint {
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @ReadOperation
+    public Map<String, Object> cache() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("prefixes", cacheMetrics.stats());
+        result.put("rebuild", rebuildScheduler.stats());
+        result.put("bloom", cacheClient.bloomStats());
+        result.put("expiry", cacheClient.expiryStats());
+        return result;
+    }
+}
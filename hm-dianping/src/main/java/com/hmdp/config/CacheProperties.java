@@ -0,0 +1,157 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @description 缓存相关配置, 对应application.yaml中的hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 进程内一级缓存(L1), 位于redis(L2)之前
+     */
+    private Local local = new Local();
+
+    /**
+     * 缓存value的序列化方式: json 或 binary
+     * 两种格式写在不同的key上, 滚动升级时新老节点可以共存
+     */
+    private String codec = "json";
+
+    /**
+     * 店铺id的布隆过滤器, 防止缓存穿透
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 逻辑过期的缓存重建线程池
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 逻辑过期的缓存在过期前按概率提前重建(XFetch)
+     */
+    private RefreshAhead refreshAhead = new RefreshAhead();
+
+    /**
+     * 启动时把tb_shop批量写入redis
+     */
+    private WarmUp warmUp = new WarmUp();
+
+    /**
+     * 过期时间加随机量, 防止同一批key同时过期
+     */
+    private Expiry expiry = new Expiry();
+
+    @Data
+    public static class Local {
+        /**
+         * 是否开启本地缓存
+         */
+        private boolean enabled = true;
+        /**
+         * 最多缓存多少个key
+         */
+        private long maximumSize = 10_000;
+        /**
+         * 所有value序列化后的总字节数上限
+         */
+        private long maximumWeight = 64L * 1024 * 1024;
+        /**
+         * 写入后多少秒过期, 兜底防止丢失失效消息时一直读到旧数据
+         */
+        private long expireAfterWriteSeconds = 60;
+    }
+
+    @Data
+    public static class Bloom {
+        private boolean enabled = true;
+        /**
+         * 预计元素个数, 超过后误判率会上升
+         */
+        private long expectedInsertions = 1_000_000;
+        /**
+         * 误判率
+         */
+        private double fpp = 0.001;
+        /**
+         * 启动时分批加载id, 每批条数
+         */
+        private int loadBatchSize = 1000;
+        /**
+         * 定时从数据库补加新增的id, 发布订阅的通知丢了也不会一直误判为不存在
+         */
+        private long resyncMillis = 30_000;
+        /**
+         * 补加时往回多查多少个id, 自增id比它小但提交得晚的记录也能补上
+         */
+        private long resyncLookback = 1000;
+    }
+
+    @Data
+    public static class Rebuild {
+        private int threads = 10;
+        /**
+         * 排队的任务数上限, 满了之后不再提交, 直接返回旧数据
+         */
+        private int queueCapacity = 100;
+    }
+
+    @Data
+    public static class RefreshAhead {
+        private boolean enabled = false;
+        /**
+         * 大于1更积极地提前刷新, 小于1更保守
+         */
+        private double beta = 1.0;
+    }
+
+    @Data
+    public static class WarmUp {
+        private boolean enabled = true;
+        /**
+         * 每批从数据库查多少条, 也是一次pipeline写入的条数
+         */
+        private int batchSize = 500;
+        /**
+         * 并行序列化和写入的线程数
+         */
+        private int threads = 4;
+        /**
+         * 启动时最多等多少秒, 超时后开始接收流量, 预热在后台继续
+         */
+        private long timeoutSeconds = 60;
+        /**
+         * 预热写入的key的有效期
+         */
+        private long ttlSeconds = 1800;
+        /**
+         * 每批在有效期上再随机加0~这么多秒, 整张表的key分散在这段时间里过期
+         */
+        private long ttlSpreadSeconds = 1800;
+    }
+
+    @Data
+    public static class Expiry {
+        /**
+         * TTL最多延长的比例, 0.1表示在原TTL基础上随机加0~10%
+         */
+        private double jitterRatio = 0.1;
+        /**
+         * 按key前缀单独配置的比例, 例如 "[cache:shop:]": 0.2
+         */
+        private Map<String, Double> prefixJitterRatio = new HashMap<>();
+        /**
+         * 过期分布统计的桶宽度
+         */
+        private long histogramBucketSeconds = 10;
+    }
+}
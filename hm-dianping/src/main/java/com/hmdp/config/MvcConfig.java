@@ -3,8 +3,8 @@ package com.hmdp.config;
 
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.utils.LoginTokenService;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -12,9 +12,9 @@ import javax.annotation.Resource;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
-    // 注入拦截器的MvcConfig是由spring构建的，它可以使用自动装配，所以在这里获取stringRedisTemplate，在new的时候作为形参传进去
+    // 注入拦截器的MvcConfig是由spring构建的，它可以使用自动装配，所以在这里获取loginTokenService，在new的时候作为形参传进去
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginTokenService loginTokenService;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -30,6 +30,6 @@ public class MvcConfig implements WebMvcConfigurer {
                 ).order(1);
         //第一个拦截器,拦截所有请求
         //order越小优先级越高
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(loginTokenService)).addPathPatterns("/**").order(0);
     }
 }
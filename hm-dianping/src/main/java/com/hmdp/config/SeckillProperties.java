@@ -0,0 +1,109 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @description 秒杀相关配置, 对应application.yaml中的hmdp.seckill
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 从stream读取订单写数据库的线程数
+     */
+    private int consumers = 2;
+
+    /**
+     * 攒够多少条订单写一次数据库, 也是每次从stream最多读的条数
+     */
+    private int batchSize = 200;
+
+    /**
+     * 第一条订单最多等多少毫秒就写库, 不管有没有攒够batchSize
+     */
+    private long flushMillis = 50;
+
+    /**
+     * 批量写库失败后重试几次, 还失败就逐条写
+     */
+    private int batchRetries = 3;
+
+    /**
+     * stream里没有消息时阻塞等待的毫秒数
+     */
+    private long blockMillis = 2000;
+
+    /**
+     * pending-list里的消息空闲超过这么久就认为消费者已经挂了, 由其他节点认领(XCLAIM)后写库
+     */
+    private long pendingIdleSeconds = 60;
+
+    /**
+     * 多久扫描一次pending-list, 毫秒
+     */
+    private long pendingScanMillis = 10_000;
+
+    /**
+     * 本节点记录的已卖完标记, 超过这个时间后放一个请求去redis确认
+     */
+    private long soldOutRecheckSeconds = 30;
+
+    /**
+     * 秒杀开始前多少秒把库存加载到redis, 并在本节点登记时间窗口
+     */
+    private long preloadAheadSeconds = 300;
+
+    /**
+     * 多久扫描一次即将开始的秒杀券, 毫秒
+     */
+    private long preloadScanMillis = 30_000;
+
+    /**
+     * 下单后多少秒没支付就取消, 库存还回去
+     */
+    private long unpaidTimeoutSeconds = 900;
+
+    /**
+     * 多久从redis领取一次即将超时的订单, 毫秒
+     */
+    private long cancelPollMillis = 1000;
+
+    /**
+     * 一次取消多少个订单, 一条update
+     */
+    private int cancelBatchSize = 500;
+
+    /**
+     * 秒杀排队: 先取号, 按固定速率放行, 放行之后才能下单
+     */
+    private WaitingRoom waitingRoom = new WaitingRoom();
+
+    @Data
+    public static class WaitingRoom {
+        private boolean enabled = false;
+        /**
+         * 开始后每秒放行多少个号, 每个券单独计算
+         */
+        private int admitPerSecond = 500;
+        /**
+         * 开始的一瞬间直接放行的号数
+         */
+        private int burst = 100;
+        /**
+         * 号超过 库存*overbookRatio 的用户取号时直接告诉他大概率抢不到
+         * 大于1是因为放行的用户里有人会放弃或者重复下单失败
+         */
+        private double overbookRatio = 1.5;
+        /**
+         * 按券单独配置放行速率, 例如 "[12]": 2000
+         */
+        private Map<Long, Integer> voucherAdmitPerSecond = new HashMap<>();
+    }
+}
@@ -0,0 +1,188 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description 启动时初始化店铺相关的缓存: 从tb_shop加载所有id到布隆过滤器, 并把店铺预热到redis
+ * ApplicationRunner执行完之前应用不会进入ReadinessState.ACCEPTING_TRAFFIC, 预热完成或超时后才就绪
+ * 其他节点新增的店铺靠发布订阅加进布隆过滤器, 通知可能丢, 再定时按id游标从数据库补加
+ */
+@Slf4j
+@Component
+public class ShopCacheRunner implements ApplicationRunner {
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheProperties cacheProperties;
+
+    private volatile BloomFilter bloomFilter;
+    /**
+     * 已经加进布隆过滤器的最大id
+     */
+    private volatile long loadedId;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        CacheProperties.Bloom bloom = cacheProperties.getBloom();
+        if (bloom.isEnabled()) {
+            loadBloomFilter(bloom);
+        }
+        CacheProperties.WarmUp warmUp = cacheProperties.getWarmUp();
+        if (warmUp.isEnabled()) {
+            warmUp(warmUp);
+        }
+    }
+
+    private void loadBloomFilter(CacheProperties.Bloom bloom) {
+        BloomFilter filter = new BloomFilter(bloom.getExpectedInsertions(), bloom.getFpp());
+        //先注册, 加载期间其他节点新增的店铺通过发布订阅也能加进来
+        cacheClient.registerBloomFilter(RedisConstants.CACHE_SHOP_KEY, filter);
+        long begin = System.currentTimeMillis();
+        loadedId = loadIds(filter, 0, bloom.getLoadBatchSize());
+        filter.markReady();
+        bloomFilter = filter;
+        log.info("店铺布隆过滤器加载完成, 耗时{}ms, {}", System.currentTimeMillis() - begin, filter.stats());
+    }
+
+    /**
+     * 从上次加载到的id往回多查一段, 补加发布订阅漏掉的店铺, 已经在过滤器里的不重复加
+     */
+    @Scheduled(fixedDelayString = "#{@cacheProperties.bloom.resyncMillis}")
+    public void resyncBloomFilter() {
+        BloomFilter filter = bloomFilter;
+        if (filter == null) {
+            return;
+        }
+        CacheProperties.Bloom bloom = cacheProperties.getBloom();
+        try {
+            loadedId = Math.max(loadedId, loadIds(filter, Math.max(0, loadedId - bloom.getResyncLookback()), bloom.getLoadBatchSize()));
+        } catch (Exception e) {
+            log.warn("店铺布隆过滤器补加失败, {}", e.toString());
+        }
+    }
+
+    /**
+     * 按id游标分页, 不用offset
+     * @return 查到的最大id, 没有查到返回fromId
+     */
+    private long loadIds(BloomFilter filter, long fromId, int batchSize) {
+        long lastId = fromId;
+        while (true) {
+            List<Shop> shops = shopService.query()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize)
+                    .list();
+            for (Shop shop : shops) {
+                String id = String.valueOf(shop.getId());
+                if (!filter.mightContain(id)) {
+                    filter.put(id);
+                }
+            }
+            if (!shops.isEmpty()) {
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            if (shops.size() < batchSize) {
+                return lastId;
+            }
+        }
+    }
+
+    /**
+     * 一个线程按id游标分批查库, 每批交给线程池序列化并pipeline写入redis
+     * 同时在途的批次有上限, 不会把整张表读进内存
+     */
+    private void warmUp(CacheProperties.WarmUp warmUp) throws InterruptedException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(warmUp.getThreads(), r -> {
+            Thread thread = new Thread(r, "cache-warm-up-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService scanner = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cache-warm-up-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlightBatches = new Semaphore(warmUp.getThreads() * 2);
+        AtomicLong written = new AtomicLong();
+        long begin = System.currentTimeMillis();
+        CompletableFuture<Void> done = CompletableFuture.runAsync(() -> {
+            long lastId = 0;
+            int batches = 0;
+            while (true) {
+                List<Shop> shops = shopService.query()
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + warmUp.getBatchSize())
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                inFlightBatches.acquireUninterruptibly();
+                //每批的有效期随机错开, 不会整张表同一时刻过期
+                long ttlSeconds = warmUp.getTtlSeconds() + ThreadLocalRandom.current().nextLong(warmUp.getTtlSpreadSeconds() + 1);
+                workers.execute(() -> {
+                    try {
+                        shopService.cacheShops(shops, ttlSeconds);
+                        written.addAndGet(shops.size());
+                    } catch (Exception e) {
+                        log.error("店铺缓存预热失败, id范围: {}~{}", shops.get(0).getId(), shops.get(shops.size() - 1).getId(), e);
+                    } finally {
+                        inFlightBatches.release();
+                    }
+                });
+                if (++batches % 20 == 0) {
+                    logProgress("进行中", written.get(), begin);
+                }
+                if (shops.size() < warmUp.getBatchSize()) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            //等所有批次写完
+            inFlightBatches.acquireUninterruptibly(warmUp.getThreads() * 2);
+            logProgress("完成", written.get(), begin);
+        }, scanner).whenComplete((v, e) -> {
+            //扫描结束(包括查库异常)后关掉两个线程池
+            workers.shutdown();
+            scanner.shutdown();
+        });
+        try {
+            done.get(warmUp.getTimeoutSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("店铺缓存预热超过{}秒未完成, 先开始接收流量, 预热在后台继续", warmUp.getTimeoutSeconds());
+        } catch (Exception e) {
+            log.error("店铺缓存预热失败", e);
+        }
+    }
+
+    private void logProgress(String stage, long written, long begin) {
+        long cost = Math.max(1, System.currentTimeMillis() - begin);
+        log.info("店铺缓存预热{}, 已写入{}条, 耗时{}ms, {}条/秒", stage, written, cost, written * 1000 / cost);
+    }
+}
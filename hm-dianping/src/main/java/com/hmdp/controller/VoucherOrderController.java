@@ -2,11 +2,16 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherOrderService;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.Resource;
+
 /**
  * <p>
  *  前端控制器
@@ -18,8 +23,27 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return Result.fail("功能未完成");
+        return voucherOrderService.seckillVoucher(voucherId);
+    }
+
+    /**
+     * 排队取号
+     */
+    @PostMapping("queue/{id}")
+    public Result joinQueue(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.joinQueue(voucherId);
+    }
+
+    /**
+     * 查排队位置, 客户端轮询
+     */
+    @GetMapping("queue/{id}")
+    public Result queryQueue(@PathVariable("id") Long voucherId, @RequestParam("ticket") Long ticket) {
+        return voucherOrderService.queryQueue(voucherId, ticket);
     }
 }
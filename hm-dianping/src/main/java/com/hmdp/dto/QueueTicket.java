@@ -0,0 +1,24 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class QueueTicket {
+    /**
+     * 排队的号, 从1开始
+     */
+    private Long ticket;
+    /**
+     * 前面还有多少人, 0表示已经放行
+     */
+    private Long position;
+    private Boolean admitted;
+    /**
+     * 预计还要等多少秒
+     */
+    private Long waitSeconds;
+    /**
+     * 已经卖完了
+     */
+    private Boolean soldOut;
+}
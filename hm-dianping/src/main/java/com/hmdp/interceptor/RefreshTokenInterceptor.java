@@ -1,17 +1,13 @@
 package com.hmdp.interceptor;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.LoginTokenService;
 import com.hmdp.utils.UserHolder;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author hongyuan.shan
@@ -19,12 +15,12 @@ import java.util.concurrent.TimeUnit;
  * @description 拦截器链,这是第一个拦截器
  */
 public class RefreshTokenInterceptor implements HandlerInterceptor {
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginTokenService loginTokenService;
 
     //这里只能用用构造器方法注入
     //不能使用autowried或resource的原因，这个类的对象是在注入拦截器时，自己new出来的，不是由spring创建的
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(LoginTokenService loginTokenService) {
+        this.loginTokenService = loginTokenService;
     }
 
     //controller执行之前拦截,每次请求之前校验session,后面就不用在业务中校验登录状态了
@@ -35,18 +31,14 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        //基于token获取redis用户
-        String key = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        //基于token获取用户: 签名token本地校验; redis的token先查本地缓存再查redis, 有效期快到了才刷新
+        UserDTO userDTO = loginTokenService.getUser(token);
         //原因同上
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         //拦截到了请求，把用户信息放到ThreadLocal,在后面的controller就可以拿到了
         UserHolder.saveUser(userDTO);
-        //刷新token有效期
-        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
         //放行
         return true;
     }
@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,31 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    /**
+     * 发布笔记, 排行已经加载时加进热门排行
+     */
+    Result saveBlog(Blog blog);
+
+    /**
+     * 热门笔记滚动分页, 按redis里的排行取, 每页的开销和第几页、笔记总数无关
+     * @param lastId 上一页最后一篇笔记的id, 第一页不传
+     * @param offset 上一页返回的offset, lastId已经不在排行里时从这个位置接着取
+     */
+    Result queryHotBlog(Long lastId, Integer offset);
+
+    /**
+     * 点赞, 已经点过的再点一次是取消; 只改redis, 点赞数由BlogLikeFlusher合并写库
+     */
+    Result likeBlog(Long id);
+
+    /**
+     * 当前用户是否点过赞, 没登录返回false
+     */
+    boolean isBlogLiked(Long id);
+
+    /**
+     * 点赞数的变化写库, 在一个事务里每篇笔记一条 liked = liked + delta
+     * @param deltas blogId -> 点赞数的变化
+     */
+    void addLikedCounts(Map<Long, Long> deltas);
 }
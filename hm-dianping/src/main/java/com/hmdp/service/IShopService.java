@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,14 @@ public interface IShopService extends IService<Shop> {
 
     Result queryShopById(Long id);
 
+    Result queryShopByType(Integer typeId, Integer current);
+
     Result update(Shop shop);
+
+    Result saveShop(Shop shop);
+
+    /**
+     * 预热: 把一批店铺写入缓存, 格式与queryShopById一致, 有效期由调用方指定
+     */
+    void cacheShops(List<Shop> shops, long ttlSeconds);
 }
@@ -1,8 +1,11 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +16,56 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
+    Result seckillVoucher(Long voucherId);
+
+    /**
+     * 秒杀排队取号, 开启排队的券放行之后才能下单
+     */
+    Result joinQueue(Long voucherId);
+
+    /**
+     * 查排队位置, 不访问redis
+     */
+    Result queryQueue(Long voucherId, Long ticket);
+
+    /**
+     * 秒杀订单落库: 扣数据库库存并保存订单, 由stream的消费者调用
+     */
+    CreateResult createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量落库: 一次批量insert, 每个券一条 stock = stock - k, 在同一个事务里
+     * 已经存在的订单(同一个用户同一张券)跳过
+     * @return 实际保存的订单
+     * @throws OutOfStockException 某个券的数据库库存不够这一批扣, 整批回滚
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 取消超时未支付的订单: 一条update把状态改成已取消, 每个券一条 stock = stock + k, 在同一个事务里
+     * 已经支付或者已经取消的订单跳过
+     * @return 实际取消的订单, 调用方再把库存还给redis
+     */
+    List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds);
+
+    enum CreateResult {
+        SAVED,
+        /**
+         * 用户已经下过单, 没有保存
+         */
+        DUPLICATE,
+        /**
+         * 数据库库存不足, 和redis不一致, 没有保存
+         */
+        OUT_OF_STOCK
+    }
+
+    /**
+     * 批量落库时数据库库存不足, 重试也不会成功, 调用方直接改成逐条写
+     */
+    class OutOfStockException extends RuntimeException {
+        public OutOfStockException(String message) {
+            super(message);
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.RedisScripts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 热门笔记排行的加载: 启动时和之后每分钟检查一次, redis里没有排行时, 抢锁后按id分批读数据库的点赞数写进临时key, 写完RENAME
+ * 点赞数 = 数据库的liked + 还没写库的变化; 加载期间的点赞和新笔记同时改加载中的key, 之后由点赞脚本和发布笔记维护
+ */
+@Slf4j
+@Component
+public class BlogHotRankingLoader implements ApplicationRunner {
+    private static final int BATCH_SIZE = 1000;
+
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisLockClient redisLockClient;
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        check();
+    }
+
+    /**
+     * 排行存在时只有一次EXISTS; redis清空或者之前加载失败时在这里补上
+     */
+    @Scheduled(fixedDelay = 60_000, initialDelay = 60_000)
+    public void check() {
+        try {
+            load();
+        } catch (Exception e) {
+            //redis或者数据库不可用不影响启动, 热门列表先为空
+            log.warn("热门笔记排行加载失败, {}", e.toString());
+        }
+    }
+
+    public void load() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY))) {
+            return;
+        }
+        RedisLock lock = redisLockClient.getLock(RedisConstants.LOCK_BLOG_HOT_KEY);
+        //拿不到锁说明别的节点在加载
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY))) {
+                return;
+            }
+            String loadingKey = RedisConstants.BLOG_HOT_LOADING_KEY;
+            stringRedisTemplate.delete(loadingKey);
+            long lastId = 0;
+            int total = 0;
+            List<Blog> blogs;
+            do {
+                blogs = loadBatch(lastId);
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                lastId = blogs.get(blogs.size() - 1).getId();
+                total += blogs.size();
+            } while (blogs.size() == BATCH_SIZE);
+            //一篇笔记都没有时加载中的key可能是发布笔记时建的, 也一起改名
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(loadingKey))) {
+                stringRedisTemplate.rename(loadingKey, RedisConstants.BLOG_HOT_KEY);
+            }
+            log.info("热门笔记排行已加载, 笔记数: {}", total);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 持有点赞数写库的锁读一批数据库的点赞数, 和redis里还没写库的变化一起写进加载中的key
+     * 锁内不会有取出了变化还没写进数据库的点赞, 两边加起来就是准确的点赞数
+     */
+    private List<Blog> loadBatch(long lastId) {
+        RedisLock flushLock = redisLockClient.getLock(RedisConstants.LOCK_BLOG_LIKE_FLUSH_KEY);
+        if (!flushLock.tryLock(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("获取点赞数写库锁超时");
+        }
+        try {
+            //按主键翻页, 每批都走索引
+            List<Blog> blogs = blogService.query().select("id", "liked")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + BATCH_SIZE)
+                    .list();
+            if (!blogs.isEmpty()) {
+                Map<Long, Integer> liked = new LinkedHashMap<>(blogs.size() * 2);
+                blogs.forEach(blog -> liked.put(blog.getId(), blog.getLiked()));
+                redisScripts.blogHotLoad(RedisConstants.BLOG_HOT_LOADING_KEY, RedisConstants.BLOG_LIKED_DELTA_KEY, liked);
+            }
+            return blogs;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+}
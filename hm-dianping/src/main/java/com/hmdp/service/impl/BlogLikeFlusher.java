@@ -0,0 +1,97 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.RedisScripts;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @description 点赞数合并写库: 点赞只改redis, 每隔likeFlushMillis把这段时间的点赞数变化一次取出来,
+ * 每篇笔记一条 liked = liked + delta, 热门笔记不再每次点击都锁同一行
+ * 取出用脚本, 多个节点同时跑每条变化只会被一个节点拿到; 写库失败把变化加回redis, 下一轮再写
+ * 取出到写库之间持有锁, 加载热门排行时拿同一把锁, 读到的数据库点赞数和redis里的变化之间没有正在写库的部分
+ */
+@Slf4j
+@Component
+public class BlogLikeFlusher {
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private RedisScripts redisScripts;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisLockClient redisLockClient;
+
+    @Scheduled(fixedDelayString = "#{@blogProperties.likeFlushMillis}")
+    public void flush() {
+        RedisLock lock = redisLockClient.getLock(RedisConstants.LOCK_BLOG_LIKE_FLUSH_KEY);
+        try {
+            //别的节点在写库或者在加载排行, 这一轮跳过
+            if (!lock.tryLock()) {
+                return;
+            }
+        } catch (Exception e) {
+            log.warn("获取点赞数写库锁失败, {}", e.toString());
+            return;
+        }
+        try {
+            drainAndSave();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainAndSave() {
+        Map<String, String> drained;
+        try {
+            drained = redisScripts.hashDrain(RedisConstants.BLOG_LIKED_DELTA_KEY);
+        } catch (Exception e) {
+            log.warn("读取点赞数变化失败, {}", e.toString());
+            return;
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> deltas = new LinkedHashMap<>(drained.size());
+        drained.forEach((id, delta) -> deltas.put(Long.valueOf(id), Long.valueOf(delta)));
+        try {
+            blogService.addLikedCounts(deltas);
+            log.debug("点赞数写库, 笔记数: {}", deltas.size());
+        } catch (Exception e) {
+            log.warn("点赞数写库失败, 下一轮重试, 笔记数: {}, {}", deltas.size(), e.toString());
+            restore(deltas);
+        }
+    }
+
+    /**
+     * 加回去而不是覆盖, 取出之后新产生的变化不会丢
+     */
+    private void restore(Map<Long, Long> deltas) {
+        deltas.forEach((id, delta) -> {
+            try {
+                stringRedisTemplate.opsForHash().increment(RedisConstants.BLOG_LIKED_DELTA_KEY, id.toString(), delta);
+            } catch (Exception e) {
+                log.error("点赞数变化加回redis失败, blogId: {}, delta: {}", id, delta, e);
+            }
+        });
+    }
+
+    /**
+     * 停机前把剩下的写掉
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
@@ -1,10 +1,36 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_LOADING_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
 
 /**
  * <p>
@@ -16,5 +42,113 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisScripts redisScripts;
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 保存探店博文
+        save(blog);
+        //排行还没加载时不加, 否则加载时会以为已经加载过; 正在加载的加到加载中的key里
+        redisScripts.blogHotAdd(BLOG_HOT_KEY, BLOG_HOT_LOADING_KEY, blog.getId());
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result queryHotBlog(Long lastId, Integer offset) {
+        //从上一页最后一篇的下一名开始取, ZREVRANK和ZREVRANGE都是O(logN + 每页条数)
+        long start = 0;
+        if (lastId != null) {
+            Long rank = stringRedisTemplate.opsForZSet().reverseRank(BLOG_HOT_KEY, lastId.toString());
+            start = rank != null ? rank + 1 : (offset == null ? 0 : offset);
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeWithScores(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        ScrollResult scrollResult = new ScrollResult();
+        if (tuples == null || tuples.isEmpty()) {
+            scrollResult.setList(Collections.emptyList());
+            scrollResult.setOffset((int) start);
+            return Result.ok(scrollResult);
+        }
+        List<Long> ids = new ArrayList<>(tuples.size());
+        long minLiked = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            minLiked = tuple.getScore() == null ? 0 : tuple.getScore().longValue();
+        }
+        //按主键查这一页, 再按排行的顺序排
+        Map<Long, Blog> blogMap = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+        List<Blog> blogs = ids.stream().map(blogMap::get).filter(blog -> blog != null).collect(Collectors.toList());
+        // 批量查询用户
+        Map<Long, UserDTO> userMap = userService.queryUserDTOByIds(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toSet()));
+        List<Boolean> liked = areBlogsLiked(blogs);
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            UserDTO user = userMap.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+            blog.setIsLike(liked.get(i));
+        }
+        scrollResult.setList(blogs);
+        scrollResult.setMinTime(minLiked);
+        scrollResult.setOffset((int) start + tuples.size());
+        return Result.ok(scrollResult);
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        //点赞记录和点赞数的变化在一个脚本里改, 同一个用户连点也不会重复计数
+        boolean liked = redisScripts.blogLike(BLOG_LIKED_KEY + id, BLOG_LIKED_DELTA_KEY, BLOG_HOT_KEY, BLOG_HOT_LOADING_KEY, id, userId);
+        return Result.ok(liked);
+    }
+
+    @Override
+    public boolean isBlogLiked(Long id) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return false;
+        }
+        Double score = stringRedisTemplate.opsForZSet().score(BLOG_LIKED_KEY + id, user.getId().toString());
+        return score != null;
+    }
+
+    /**
+     * 当前用户是否点赞了这一页的每篇笔记, 一次pipeline查完
+     */
+    private List<Boolean> areBlogsLiked(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return Collections.nCopies(blogs.size(), false);
+        }
+        byte[] member = user.getId().toString().getBytes(StandardCharsets.UTF_8);
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                connection.zScore((BLOG_LIKED_KEY + blog.getId()).getBytes(StandardCharsets.UTF_8), member);
+            }
+            return null;
+        });
+        return scores.stream().map(score -> score != null).collect(Collectors.toList());
+    }
 
+    @Override
+    @Transactional
+    public void addLikedCounts(Map<Long, Long> deltas) {
+        deltas.forEach((id, delta) -> {
+            if (delta != 0) {
+                update().setSql("liked = liked + " + delta).eq("id", id).update();
+            }
+        });
+    }
 }
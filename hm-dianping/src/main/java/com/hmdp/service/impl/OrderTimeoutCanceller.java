@@ -0,0 +1,155 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisDelayQueue;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SoldOutRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * @description 超时未支付的订单自动取消
+ * 订单落库后把订单id放进延时队列(redis zset, score是超时时间), 到期后按批取消:
+ * 数据库里一条update改状态, 每个券一条update还库存; 提交之后把库存和一人一单的记录还给redis
+ * 已经支付的订单在取消时被跳过, 不需要从队列里删
+ * 数据库提交后还redis失败的, 放进另一个延时队列(voucherId:userId)单独重试, 直到还成功, 不然这些用户永远不能再抢
+ */
+@Slf4j
+@Component
+public class OrderTimeoutCanceller {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisScripts redisScripts;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private RedisDelayQueue queue;
+    /**
+     * 归还redis库存失败的任务, member是 voucherId:userId
+     */
+    private RedisDelayQueue releaseQueue;
+    private Counter canceled;
+    private Counter released;
+
+    @PostConstruct
+    public void init() {
+        long pollMillis = seckillProperties.getCancelPollMillis();
+        int batchSize = seckillProperties.getCancelBatchSize();
+        //每次领取两个轮询间隔内到期的, 租约留出处理积压的时间
+        queue = new RedisDelayQueue(RedisConstants.ORDER_TIMEOUT_KEY, stringRedisTemplate, redisScripts,
+                pollMillis * 2, Math.max(TimeUnit.MINUTES.toMillis(1), pollMillis * 10), batchSize, batchSize * 200,
+                this::cancel);
+        //领取后处理失败, 租约到期(1分钟)后重新领取重试
+        releaseQueue = new RedisDelayQueue(RedisConstants.ORDER_RELEASE_KEY, stringRedisTemplate, redisScripts,
+                pollMillis * 2, TimeUnit.MINUTES.toMillis(1), batchSize, batchSize * 10, this::release);
+        canceled = meterRegistry.counter("seckill.order.canceled");
+        released = meterRegistry.counter("seckill.stock.released");
+        Gauge.builder("seckill.order.timeout.pending", queue, RedisDelayQueue::pending)
+                .description("本节点时间轮里等待到期的订单数")
+                .register(meterRegistry);
+        Gauge.builder("seckill.stock.release.pending", releaseQueue, RedisDelayQueue::pending)
+                .description("本节点等待重试归还redis库存的订单数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 订单落库之后调用, 从现在开始计算超时时间
+     */
+    public void schedule(List<VoucherOrder> orders) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seckillProperties.getUnpaidTimeoutSeconds());
+        queue.offer(orders.stream().map(order -> order.getId().toString()).collect(Collectors.toList()), deadline);
+    }
+
+    @Scheduled(fixedDelayString = "#{@seckillProperties.cancelPollMillis}")
+    public void poll() {
+        try {
+            queue.poll();
+            releaseQueue.poll();
+        } catch (Exception e) {
+            log.warn("领取超时订单失败, {}", e.toString());
+        }
+    }
+
+    private void cancel(List<String> members) {
+        List<Long> orderIds = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<VoucherOrder> orders = voucherOrderService.cancelUnpaidOrders(orderIds);
+        if (orders.isEmpty()) {
+            return;
+        }
+        canceled.increment(orders.size());
+        //数据库已经提交, 取消状态不会再回到未支付, 还redis失败的放进重试队列
+        Map<Long, List<Long>> usersByVoucher = orders.stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId,
+                Collectors.mapping(VoucherOrder::getUserId, Collectors.toList())));
+        List<String> failed = new ArrayList<>();
+        usersByVoucher.forEach((voucherId, userIds) -> {
+            try {
+                releaseStock(voucherId, userIds);
+            } catch (Exception e) {
+                log.warn("取消订单后归还redis库存失败, 稍后重试, voucherId: {}, 条数: {}, {}", voucherId, userIds.size(), e.toString());
+                userIds.forEach(userId -> failed.add(voucherId + ":" + userId));
+            }
+        });
+        if (!failed.isEmpty()) {
+            try {
+                releaseQueue.offer(failed, System.currentTimeMillis());
+            } catch (Exception e) {
+                //订单已经是取消状态, 超时队列重试时查不到了, 只能记下来人工处理
+                log.error("归还redis库存的重试任务写入失败, 需要人工处理: {}", failed, e);
+            }
+        }
+        log.debug("取消超时未支付订单 {} 条", orders.size());
+    }
+
+    /**
+     * 重试归还redis库存, 失败抛出去, 租约到期后重新领取
+     * 按一人一单的记录删, 重复执行不会多还
+     */
+    private void release(List<String> members) {
+        Map<Long, List<Long>> usersByVoucher = members.stream().map(member -> member.split(":"))
+                .collect(Collectors.groupingBy(parts -> Long.valueOf(parts[0]),
+                        Collectors.mapping(parts -> Long.valueOf(parts[1]), Collectors.toList())));
+        usersByVoucher.forEach(this::releaseStock);
+        log.info("重试归还redis库存成功, 条数: {}", members.size());
+    }
+
+    private void releaseStock(Long voucherId, List<Long> userIds) {
+        long count = seckillStock.release(voucherId, userIds);
+        released.increment(count);
+        if (count > 0) {
+            soldOutRegistry.clear(voucherId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        queue.close();
+        releaseQueue.close();
+    }
+}
@@ -0,0 +1,419 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SoldOutRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import cn.hutool.core.lang.UUID;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @description 从redis的stream里读取秒杀订单批量写入数据库
+ * 同一个消费组里每个节点开consumers个消费者, 每个消费者攒够batchSize条或者等了flushMillis就写一次库
+ * 一批订单一个事务: 一次批量insert, 每个券一条 stock = stock - k; 数据库异常重试batchRetries次, 再失败或者库存不足就逐条写
+ * 写库成功后才XACK, 没有确认的消息留在pending-list里, 下一轮先处理pending-list
+ * 消费者名字每次启动都不一样, 不依赖主机名: 挂掉或者被替换的节点留下的消息, 空闲超过pendingIdleSeconds后
+ * 由任意节点定时XCLAIM过来写库; 没有pending消息且长时间空闲的消费者从消费组里删掉
+ * 数据库库存不足(和redis不一致)的订单写进死信stream, 把redis的库存和一人一单的记录还回去之后才确认
+ */
+@Slf4j
+@Component
+public class SeckillOrderConsumer implements ApplicationRunner {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private RedisLockClient redisLockClient;
+    @Resource
+    private OrderTimeoutCanceller orderTimeoutCanceller;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 本次启动的标识, 消费者名字的前缀
+     */
+    private final String nodeId = UUID.fastUUID().toString(true);
+    private ExecutorService executor;
+    private volatile boolean running = true;
+
+    private DistributionSummary batchSize;
+    private Timer flushTimer;
+    private Counter saved;
+    private Counter skipped;
+    private Counter batchFailures;
+    private Counter deadLetters;
+
+    @PostConstruct
+    public void initMetrics() {
+        batchSize = DistributionSummary.builder("seckill.order.batch.size")
+                .description("每批写库的订单数")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        flushTimer = Timer.builder("seckill.order.flush")
+                .description("一批订单写库的耗时, 包括重试")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        saved = meterRegistry.counter("seckill.order.saved");
+        skipped = meterRegistry.counter("seckill.order.skipped");
+        batchFailures = meterRegistry.counter("seckill.order.batch.failed");
+        deadLetters = meterRegistry.counter("seckill.order.dead");
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        createGroup();
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(seckillProperties.getConsumers(), r -> {
+            Thread thread = new Thread(r, "seckill-order-consumer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < seckillProperties.getConsumers(); i++) {
+            Consumer consumer = Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, nodeId + "-" + i);
+            executor.execute(() -> consume(consumer));
+        }
+    }
+
+    private void createGroup() {
+        try {
+            //MKSTREAM: stream不存在时一起创建
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    bytes("CREATE"), bytes(RedisConstants.SECKILL_ORDER_STREAM), bytes(RedisConstants.SECKILL_ORDER_GROUP),
+                    bytes("0"), bytes("MKSTREAM")));
+        } catch (Exception e) {
+            //BUSYGROUP: 消费组已经存在
+            log.debug("创建消费组: {}", e.getMessage());
+        }
+    }
+
+    private void consume(Consumer consumer) {
+        int maxBatch = seckillProperties.getBatchSize();
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>(maxBatch);
+        long deadline = 0;
+        boolean recoverPending = true;
+        while (running) {
+            try {
+                //先处理pending-list里上次没有确认的消息, 处理完再读新消息
+                if (recoverPending) {
+                    List<MapRecord<String, Object, Object>> pending = read(consumer, ReadOffset.from("0"), maxBatch, null);
+                    if (pending.isEmpty()) {
+                        recoverPending = false;
+                    } else if (!flush(pending)) {
+                        //还有写不进去的, 等一会再重试, 不要空转
+                        sleep(1000);
+                    }
+                    continue;
+                }
+                //攒批: 第一条到了之后最多再等flushMillis
+                long wait = batch.isEmpty() ? seckillProperties.getBlockMillis() : Math.max(1, deadline - System.currentTimeMillis());
+                List<MapRecord<String, Object, Object>> records = read(consumer, ReadOffset.lastConsumed(),
+                        maxBatch - batch.size(), Duration.ofMillis(wait));
+                if (!records.isEmpty() && batch.isEmpty()) {
+                    deadline = System.currentTimeMillis() + seckillProperties.getFlushMillis();
+                }
+                batch.addAll(records);
+                if (batch.size() >= maxBatch || (!batch.isEmpty() && System.currentTimeMillis() >= deadline)) {
+                    recoverPending = !flush(batch);
+                    batch.clear();
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("处理秒杀订单异常", e);
+                //已经读到的留在pending-list里, 下一轮重新处理
+                batch.clear();
+                recoverPending = true;
+                sleep(1000);
+            }
+        }
+    }
+
+    /**
+     * 认领空闲超过pendingIdleSeconds的消息并写库, 包括已经不存在的节点留下的
+     * XCLAIM带着最小空闲时间, 多个节点同时认领同一条只有一个能成功, 正常消费中的消息不会被抢走
+     */
+    @Scheduled(fixedDelayString = "#{@seckillProperties.pendingScanMillis}",
+            initialDelayString = "#{@seckillProperties.pendingScanMillis}")
+    public void recoverIdlePending() {
+        if (!running) {
+            return;
+        }
+        Duration minIdle = Duration.ofSeconds(seckillProperties.getPendingIdleSeconds());
+        String claimer = nodeId + "-recovery";
+        int count = seckillProperties.getBatchSize();
+        try {
+            while (running) {
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(RedisConstants.SECKILL_ORDER_STREAM,
+                        RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), count);
+                List<RecordId> idle = new ArrayList<>();
+                for (PendingMessage message : pending) {
+                    if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                        idle.add(message.getId());
+                    }
+                }
+                if (idle.isEmpty()) {
+                    break;
+                }
+                List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                        connection.streamCommands().xClaim(bytes(RedisConstants.SECKILL_ORDER_STREAM),
+                                RedisConstants.SECKILL_ORDER_GROUP, claimer, minIdle, idle.toArray(new RecordId[0])));
+                if (claimed == null || claimed.isEmpty()) {
+                    break;
+                }
+                log.warn("认领空闲的秒杀订单 {} 条", claimed.size());
+                List<MapRecord<String, Object, Object>> records = new ArrayList<>(claimed.size());
+                for (ByteRecord record : claimed) {
+                    records.add(toMapRecord(record));
+                }
+                //写不进去的留在pending-list里, 空闲够久后再认领
+                if (!flush(records) || pending.size() < count) {
+                    break;
+                }
+            }
+            removeIdleConsumers(minIdle);
+        } catch (Exception e) {
+            log.warn("认领pending-list里的秒杀订单失败, {}", e.toString());
+        }
+    }
+
+    /**
+     * 每次启动消费者名字都不一样, 已经没有消息的旧消费者不删会一直留在消费组里
+     */
+    private void removeIdleConsumers(Duration minIdle) {
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream()
+                .consumers(RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP);
+        consumers.forEach(consumer -> {
+            if (consumer.pendingCount() == 0 && consumer.idleTimeMs() > minIdle.toMillis() * 10
+                    && !consumer.consumerName().startsWith(nodeId)) {
+                stringRedisTemplate.opsForStream().deleteConsumer(RedisConstants.SECKILL_ORDER_STREAM,
+                        Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumer.consumerName()));
+            }
+        });
+    }
+
+    private static MapRecord<String, Object, Object> toMapRecord(ByteRecord record) {
+        Map<Object, Object> value = new HashMap<>();
+        record.getValue().forEach((field, data) ->
+                value.put(new String(field, StandardCharsets.UTF_8), new String(data, StandardCharsets.UTF_8)));
+        return StreamRecords.newRecord().in(RedisConstants.SECKILL_ORDER_STREAM).withId(record.getId()).ofMap(value);
+    }
+
+    private List<MapRecord<String, Object, Object>> read(Consumer consumer, ReadOffset offset, int count, Duration block) {
+        StreamReadOptions options = StreamReadOptions.empty().count(count);
+        if (block != null) {
+            options = options.block(block);
+        }
+        @SuppressWarnings("unchecked")
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(consumer, options,
+                StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, offset));
+        return records == null ? new ArrayList<>() : records;
+    }
+
+    /**
+     * 写一批订单并确认
+     * @return 是否全部确认了
+     */
+    private boolean flush(List<MapRecord<String, Object, Object>> records) {
+        long begin = System.nanoTime();
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            orders.add(toOrder(record.getValue()));
+        }
+        batchSize.record(orders.size());
+        List<RecordId> acked = new ArrayList<>(records.size());
+        //要确认的订单都放进超时队列, 包括重复投递时已经存在的: 上次可能落库后没来得及放进去
+        //ZADD NX, 已经放过的保持原来的超时时间
+        List<VoucherOrder> scheduled;
+        if (saveBatchWithRetry(orders) != null) {
+            records.forEach(record -> acked.add(record.getId()));
+            scheduled = orders;
+        } else {
+            scheduled = new ArrayList<>(records.size());
+            //逐条写, 已经存在的跳过, 写失败的不确认, 留在pending-list里
+            for (int i = 0; i < records.size(); i++) {
+                IVoucherOrderService.CreateResult result = saveOne(orders.get(i));
+                if (result == null) {
+                    continue;
+                }
+                if (result == IVoucherOrderService.CreateResult.OUT_OF_STOCK && !deadLetter(records.get(i), orders.get(i))) {
+                    continue;
+                }
+                acked.add(records.get(i).getId());
+                if (result != IVoucherOrderService.CreateResult.OUT_OF_STOCK) {
+                    scheduled.add(orders.get(i));
+                }
+            }
+        }
+        //确认之前放进超时队列, 放失败了消息不确认, 留在pending-list里, 重新处理时按重复订单再放一次
+        orderTimeoutCanceller.schedule(scheduled);
+        if (!acked.isEmpty()) {
+            stringRedisTemplate.opsForStream().acknowledge(RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP,
+                    acked.toArray(new RecordId[0]));
+        }
+        flushTimer.record(Duration.ofNanos(System.nanoTime() - begin));
+        return acked.size() == records.size();
+    }
+
+    /**
+     * 只有数据库异常才重试, 库存不足重试也一样, 直接返回null改成逐条写
+     * @return 实际保存的订单, 重试后还失败返回null
+     */
+    private List<VoucherOrder> saveBatchWithRetry(List<VoucherOrder> orders) {
+        for (int attempt = 0; attempt <= seckillProperties.getBatchRetries(); attempt++) {
+            try {
+                List<VoucherOrder> persisted = voucherOrderService.createVoucherOrders(orders);
+                saved.increment(persisted.size());
+                skipped.increment(orders.size() - persisted.size());
+                return persisted;
+            } catch (IVoucherOrderService.OutOfStockException e) {
+                batchFailures.increment();
+                log.warn("批量保存秒杀订单失败, 条数: {}, {}, 改成逐条写", orders.size(), e.getMessage());
+                return null;
+            } catch (Exception e) {
+                batchFailures.increment();
+                log.warn("批量保存秒杀订单失败, 第{}次, 条数: {}, {}", attempt + 1, orders.size(), e.toString());
+                if (attempt < seckillProperties.getBatchRetries()) {
+                    sleep(100L << attempt);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 写库的结果, 要留在pending-list里下次再处理的返回null
+     */
+    private IVoucherOrderService.CreateResult saveOne(VoucherOrder voucherOrder) {
+        //逐条兜底时多个消费者可能同时处理同一个用户, 按用户加锁保证一人一单的检查和插入不交错
+        RedisLock lock = redisLockClient.getLock(RedisConstants.LOCK_ORDER_KEY + voucherOrder.getUserId());
+        try {
+            if (!lock.tryLock(1, TimeUnit.SECONDS)) {
+                //拿不到锁不ack, 留在pending list里下次再处理
+                log.warn("获取用户下单锁超时, userId: {}, id: {}", voucherOrder.getUserId(), voucherOrder.getId());
+                return null;
+            }
+            try {
+                IVoucherOrderService.CreateResult result = voucherOrderService.createVoucherOrder(voucherOrder);
+                if (result == IVoucherOrderService.CreateResult.SAVED) {
+                    saved.increment();
+                } else {
+                    skipped.increment();
+                }
+                return result;
+            } finally {
+                lock.unlock();
+            }
+        } catch (DuplicateKeyException e) {
+            //写库成功但XACK之前挂了, 消息会再投递一次, 订单id是主键, 已经存在就当作成功
+            log.info("秒杀订单已存在, id: {}", voucherOrder.getId());
+            skipped.increment();
+            return IVoucherOrderService.CreateResult.DUPLICATE;
+        } catch (Exception e) {
+            log.error("保存秒杀订单失败, id: {}", voucherOrder.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 数据库库存不足的订单: 写进死信stream留作对账, 再把redis的库存和一人一单的记录还回去, 用户可以重新抢
+     * 归还按一人一单的记录删, 重复执行不会多还; 死信可能重复写, 带着原消息id, 对账时去重; 失败时不确认, 下次重新处理
+     * @return 是否可以确认这条消息
+     */
+    private boolean deadLetter(MapRecord<String, Object, Object> record, VoucherOrder voucherOrder) {
+        try {
+            Map<Object, Object> value = new HashMap<>(record.getValue());
+            value.put("sourceId", record.getId().getValue());
+            value.put("reason", "db_out_of_stock");
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord()
+                    .in(RedisConstants.SECKILL_ORDER_DEAD_STREAM).ofMap(value));
+            long released = seckillStock.release(voucherOrder.getVoucherId(), Collections.singletonList(voucherOrder.getUserId()));
+            if (released > 0) {
+                soldOutRegistry.clear(voucherOrder.getVoucherId());
+            }
+            deadLetters.increment();
+            log.error("数据库库存不足, 订单写入死信stream, 已归还redis库存, id: {}, voucherId: {}, userId: {}",
+                    voucherOrder.getId(), voucherOrder.getVoucherId(), voucherOrder.getUserId());
+            return true;
+        } catch (Exception e) {
+            log.error("订单写入死信stream失败, id: {}", voucherOrder.getId(), e);
+            return false;
+        }
+    }
+
+    private static VoucherOrder toOrder(Map<Object, Object> value) {
+        return new VoucherOrder()
+                .setId(Long.valueOf((String) value.get("id")))
+                .setUserId(Long.valueOf((String) value.get("userId")))
+                .setVoucherId(Long.valueOf((String) value.get("voucherId")));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
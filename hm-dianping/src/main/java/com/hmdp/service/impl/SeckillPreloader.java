@@ -0,0 +1,98 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.RedisLockClient;
+import com.hmdp.utils.SeckillGate;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SeckillWaitingRoom;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 秒杀预加载: 启动时和之后每隔preloadScanMillis, 找出preloadAheadSeconds内开始、还没结束的秒杀券
+ * 1. redis里没有库存的, 抢锁后按数据库的库存写进去(只有一个节点写)
+ * 2. 在本节点缓存分片数, 登记时间窗口, 到点打开和关闭开关
+ * 开始后的第一批请求不用再查redis的元数据, 窗口外的请求不访问redis
+ */
+@Slf4j
+@Component
+public class SeckillPreloader implements ApplicationRunner {
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillGate seckillGate;
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+    @Resource
+    private RedisLockClient redisLockClient;
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        preload();
+    }
+
+    @Scheduled(fixedDelayString = "#{@seckillProperties.preloadScanMillis}",
+            initialDelayString = "#{@seckillProperties.preloadScanMillis}")
+    public void preload() {
+        long aheadSeconds = seckillProperties.getPreloadAheadSeconds();
+        LocalDateTime now = LocalDateTime.now();
+        List<SeckillVoucher> vouchers;
+        try {
+            vouchers = seckillVoucherService.query()
+                    .le("begin_time", now.plusSeconds(aheadSeconds))
+                    .gt("end_time", now)
+                    .list();
+        } catch (Exception e) {
+            log.warn("查询即将开始的秒杀券失败, {}", e.toString());
+            return;
+        }
+        for (SeckillVoucher voucher : vouchers) {
+            try {
+                preload(voucher);
+            } catch (Exception e) {
+                //一个券失败不影响其他券, 下一轮再试
+                log.warn("秒杀券预加载失败, voucherId: {}, {}", voucher.getVoucherId(), e.toString());
+            }
+        }
+        //结束很久的窗口不再保留
+        seckillGate.evictEnded(TimeUnit.SECONDS.toMillis(aheadSeconds));
+        seckillWaitingRoom.evictEnded(TimeUnit.SECONDS.toMillis(aheadSeconds));
+    }
+
+    private void preload(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        if (!seckillStock.isLoaded(voucherId)) {
+            RedisLock lock = redisLockClient.getLock(RedisConstants.LOCK_SECKILL_PRELOAD_KEY + voucherId);
+            //拿不到锁说明别的节点在加载
+            if (lock.tryLock()) {
+                try {
+                    if (!seckillStock.isLoaded(voucherId)) {
+                        //数据库没有记分片数, 补加载的券不分片
+                        seckillStock.init(voucher, null);
+                        log.info("秒杀库存已加载到redis, voucherId: {}, stock: {}", voucherId, voucher.getStock());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        seckillGate.register(voucherId, voucher.getBeginTime(), voucher.getEndTime());
+        seckillWaitingRoom.register(voucherId, voucher.getBeginTime(), voucher.getEndTime(), voucher.getStock());
+    }
+}
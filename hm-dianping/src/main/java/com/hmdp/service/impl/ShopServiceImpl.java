@@ -1,9 +1,6 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
@@ -11,18 +8,19 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -35,15 +33,9 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
-    @Resource
-    private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR=
-            new ThreadPoolExecutor(10,10,0,
-                    TimeUnit.MINUTES,new LinkedBlockingDeque<>(100));
-
     @Override
     public Result queryShopById(Long id) {
         //缓存穿透
@@ -59,119 +51,60 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current) {
+        //数据库只查这一页的id, 店铺详情走缓存批量查
+        Page<Shop> page = query()
+                .select("id")
+                .eq("type_id", typeId)
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        List<Long> ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+        Map<Long, Shop> shopMap = cacheClient.queryBatchWithPassThrough(RedisConstants.CACHE_SHOP_KEY, ids, Shop.class,
+                this::queryShopMapByIds, RedisConstants.CACHE_SHOP_TTL, TimeUnit.SECONDS);
+        return Result.ok(new ArrayList<>(shopMap.values()));
+    }
+
+    private Map<Long, Shop> queryShopMapByIds(Collection<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+    }
+
     public Shop queryWithLogicalExpire(Long id){
-        String shopString = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        //不存在  直接返回
-        if (StrUtil.isBlank(shopString)){
-            return null;
-        }
-        RedisData redisData = JSONUtil.toBean(shopString, RedisData.class);
-        //为什么不能强转
-        // Shop shop = (Shop) redisData.getData();
-        JSONObject data = (JSONObject) redisData.getData();
-        Shop shop = JSONUtil.toBean(data, Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //没过期
-        if (expireTime.isAfter(LocalDateTime.now())){
-            //直接返回店铺信息
-            return shop;
-        }
-        //过期了,重建缓存
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        //获取锁失败, 直接返回
-        if (!tryLock(lockKey)){
-            return shop;
-        }
-        shopString = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        if (StrUtil.isNotBlank(shopString)){
-             redisData = JSONUtil.toBean(shopString, RedisData.class);
-             shop = (Shop) redisData.getData();
-             //没过期
-             if (redisData.getExpireTime().isAfter(LocalDateTime.now())){
-                 return shop;
-             }
-        }
-        CACHE_REBUILD_EXECUTOR.execute(() -> {
-            try {
-                saveShop2Redis(id, 20L);
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                unLock(lockKey);
-            }
-        });
-        return shop;
+        //序列化格式由cacheClient的codec决定, 这里不再自己读写json
+        return cacheClient.queryWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
     }
 
     //预热
     public void saveShop2Redis(Long id, Long expire){
         Shop shop = getById(id);
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expire));
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + id, shop, expire, TimeUnit.SECONDS);
     }
 
     public Shop queryWithMutex(Long id){
-        //先redis
-        String shopString = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        if (StrUtil.isNotBlank(shopString)){
-            Shop shop = JSONUtil.toBean(shopString, Shop.class);
-            return shop;
-        }
-        //如果是穿透情况, redis返回是"", 此时也去查mysql也查不到东西,所以直接返回,不要去请求数据库
-        if ("".equals(shopString)){
-            return null;
-        }
-        String lockKey = null;
-        Shop shop = null;
-        try {
-            //实现缓存重建
-            lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-            if (!tryLock(lockKey)){
-                //失败,休眠后重试
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-            //成功，根据id查询数据库
-            shop = getById(id);
-            //模拟重建所需时间
-            Thread.sleep(200);
-            if (Objects.isNull(shop)){
-                //将空值写入redis解决缓存穿透问题
-                stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
-            }
-            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }finally {
-            unLock(lockKey);
-        }
-        return shop;
+        //同一节点的并发请求在cacheClient里合并成一次查询, 不再睡眠后递归重试
+        return cacheClient.queryWithMutex(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
 
     public Shop queryWithPassThrough(Long id){
-        //先redis
-        String shopString = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        if (StrUtil.isNotBlank(shopString)){
-            Shop shop = JSONUtil.toBean(shopString, Shop.class);
-            return shop;
-        }
-        //如果是穿透情况, redis返回是"", 此时也去查mysql也查不到东西，所以直接返回,不要去请求数据库
-        if ("".equals(shopString)){
-            return null;
-        }
-        // redis不存在,查mysql
-        Shop shop = getById(id);
-        if (Objects.isNull(shop)){
-            //将空值写入redis解决缓存穿透问题
-            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        return shop;
+        return cacheClient.queryWithPassThrough(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void cacheShops(List<Shop> shops, long ttlSeconds) {
+        Map<String, Shop> values = shops.stream()
+                .collect(Collectors.toMap(shop -> RedisConstants.CACHE_SHOP_KEY + shop.getId(), Function.identity()));
+        cacheClient.setBatch(values, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 之前查过这个id留下的空值要删掉
+        cacheClient.invalidate(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        // 加入布隆过滤器, 否则新店铺会被当成不存在
+        cacheClient.addToBloomFilter(RedisConstants.CACHE_SHOP_KEY, shop.getId());
+        return Result.ok(shop.getId());
     }
 
     @Override
@@ -180,18 +113,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (Objects.isNull(shop.getId())){
             return Result.fail("店铺id不能为空");
         }
-        //先更新数据库,再删除缓存
+        //先更新数据库,再删除缓存, 同时通知各节点删除本地缓存
         updateById(shop);
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        cacheClient.invalidate(RedisConstants.CACHE_SHOP_KEY + shop.getId());
         return Result.ok();
     }
-
-    private Boolean tryLock(String key){
-        Boolean ret = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(ret);
-    }
-
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
-    }
 }
@@ -8,6 +8,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -30,6 +31,8 @@ import java.util.concurrent.TimeUnit;
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
 
     @Override
     public Result queryShopTypeString() {
@@ -44,7 +47,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
             return Result.fail("分类不存在");
         }
         stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, JSONUtil.toJsonStr(typeList));
-        stringRedisTemplate.expire(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, RedisConstants.CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
+        cacheClient.expire(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, RedisConstants.CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
         return Result.ok(typeList);
     }
 
@@ -64,7 +67,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
         typeList = query().orderByAsc("sort").list();
         //存入redis
         typeList.forEach(shopType -> stringRedisTemplate.opsForList().rightPushAll(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, JSONUtil.toJsonStr(shopType)));
-        stringRedisTemplate.expire(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, RedisConstants.CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
+        cacheClient.expire(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, RedisConstants.CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
         return Result.ok(typeList);
     }
 
@@ -83,7 +86,7 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
             return Result.fail("分类不存在");
         }
         typeList1.forEach(shopType -> stringRedisTemplate.opsForZSet().add(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, JSONUtil.toJsonStr(shopType), shopType.getSort()));
-        stringRedisTemplate.expire(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, RedisConstants.CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
+        cacheClient.expire(RedisConstants.CACHE_SHOP_TYPE_LIST_KEY, RedisConstants.CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
         return Result.ok(typeList1);
     }
 }
@@ -1,8 +1,8 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -10,6 +10,8 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginTokenService;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.SystemConstants;
@@ -19,10 +21,11 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -37,6 +40,10 @@ import java.util.concurrent.TimeUnit;
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private LoginTokenService loginTokenService;
 
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -72,21 +79,29 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if (Objects.isNull(user)) {
             user = createUserWithPhone(phone);
         }
-        //生成token
-        String token = UUID.randomUUID().toString(true);
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+        //生成token, 按配置存到redis或者签名后直接返回
+        String token = loginTokenService.createToken(userDTO);
+        return Result.ok(token);
+    }
 
-        //userDTO对象id是Long类型,如果不转换会报错,stringRedisTemplate只支持String
-        Map<String, String> userMap = new HashMap<>();
-        userMap.put("id", userDTO.getId().toString());
-        userMap.put("nickName", userDTO.getNickName());
-        userMap.put("icon", userDTO.getIcon());
+    @Override
+    public Result logout(String token) {
+        if (StrUtil.isBlank(token)) {
+            return Result.ok();
+        }
+        //redis的token删除并通知所有节点删掉本地缓存, 签名的token加到黑名单
+        loginTokenService.logout(token);
+        return Result.ok();
+    }
 
-        //保存到redis
-        String tokenKey = RedisConstants.LOGIN_USER_KEY + token;
-        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
-        stringRedisTemplate.expire(tokenKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
-        return Result.ok(token);
+    @Override
+    public Map<Long, UserDTO> queryUserDTOByIds(Collection<Long> ids) {
+        //只缓存UserDTO, 不把手机号密码放进redis
+        return cacheClient.queryBatchWithPassThrough(RedisConstants.CACHE_USER_KEY, ids, UserDTO.class,
+                userIds -> listByIds(userIds).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES);
     }
 
     private User createUserWithPhone(String phone) {
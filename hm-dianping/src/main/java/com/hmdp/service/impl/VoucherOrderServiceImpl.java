@@ -1,10 +1,29 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.QueueTicket;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScripts;
+import com.hmdp.utils.SeckillGate;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.SoldOutRegistry;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -14,7 +33,176 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
+    /**
+     * 订单状态 1: 未支付 4: 已取消
+     */
+    private static final int STATUS_UNPAID = 1;
+    private static final int STATUS_CANCELED = 4;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private SeckillGate seckillGate;
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    /**
+     * 请求线程只访问redis: 判断时间、库存和一人一单, 扣redis库存并把订单写进stream, 分片的库存见SeckillStock
+     * 数据库由SeckillOrderConsumer异步写
+     */
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        //不在秒杀时间内的直接返回, 不访问redis
+        RedisScripts.SeckillResult rejected = seckillGate.check(voucherId);
+        if (rejected != null) {
+            return Result.fail(rejected.getMessage());
+        }
+        //已经卖完的直接返回, 不访问redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail(RedisScripts.SeckillResult.OUT_OF_STOCK.getMessage());
+        }
+        Long userId = UserHolder.getUser().getId();
+        //开启排队的券, 号放行之后才能下单
+        String notAdmitted = seckillWaitingRoom.checkAdmitted(voucherId, userId);
+        if (notAdmitted != null) {
+            return Result.fail(notAdmitted);
+        }
+        long orderId = redisIdWorker.nextId("order");
+        RedisScripts.SeckillResult result = seckillStock.deduct(voucherId, userId, orderId);
+        if (result == RedisScripts.SeckillResult.OUT_OF_STOCK) {
+            soldOutRegistry.markSoldOut(voucherId);
+        }
+        if (result != RedisScripts.SeckillResult.SUCCESS) {
+            return Result.fail(result.getMessage());
+        }
+        return Result.ok(orderId);
+    }
+
+    @Override
+    public Result joinQueue(Long voucherId) {
+        RedisScripts.SeckillResult rejected = seckillGate.check(voucherId);
+        if (rejected == RedisScripts.SeckillResult.ENDED) {
+            return Result.fail(rejected.getMessage());
+        }
+        if (soldOutRegistry.isMarkedSoldOut(voucherId)) {
+            return Result.fail(RedisScripts.SeckillResult.OUT_OF_STOCK.getMessage());
+        }
+        QueueTicket ticket = seckillWaitingRoom.join(voucherId, UserHolder.getUser().getId());
+        if (ticket == null) {
+            return Result.fail("该秒杀券不需要排队");
+        }
+        //排在后面的用户提前告诉他, 不用再等
+        if (seckillWaitingRoom.isHopeless(voucherId, ticket.getTicket())) {
+            return Result.fail("排队人数已超过库存, 很可能抢不到了");
+        }
+        return Result.ok(ticket);
+    }
+
+    @Override
+    public Result queryQueue(Long voucherId, Long ticket) {
+        QueueTicket status = seckillWaitingRoom.status(voucherId, ticket);
+        if (status == null) {
+            return Result.fail("该秒杀券不需要排队");
+        }
+        return Result.ok(status);
+    }
+
+    @Override
+    @Transactional
+    public CreateResult createVoucherOrder(VoucherOrder voucherOrder) {
+        //redis已经保证了一人一单, 这里兜底stream消息重复投递
+        //超时取消的订单不算, 取消后用户可以重新抢
+        Integer count = query().eq("user_id", voucherOrder.getUserId())
+                .eq("voucher_id", voucherOrder.getVoucherId())
+                .ne("status", STATUS_CANCELED)
+                .count();
+        if (count > 0) {
+            log.warn("用户重复下单, userId: {}, voucherId: {}", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            return CreateResult.DUPLICATE;
+        }
+        //乐观锁, stock > 0 才扣
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherOrder.getVoucherId())
+                .gt("stock", 0)
+                .update();
+        if (!success) {
+            log.error("数据库库存不足, redis和数据库的库存不一致, voucherId: {}", voucherOrder.getVoucherId());
+            return CreateResult.OUT_OF_STOCK;
+        }
+        save(voucherOrder);
+        return CreateResult.SAVED;
+    }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //查出这批用户已有的订单, 按 券id:用户id 去重, 批内重复的也只保留第一条
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<String> existing = query().select("voucher_id", "user_id")
+                .in("voucher_id", voucherIds)
+                .in("user_id", userIds)
+                .ne("status", STATUS_CANCELED)
+                .list().stream()
+                .map(order -> order.getVoucherId() + ":" + order.getUserId())
+                .collect(Collectors.toSet());
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (existing.add(voucherOrder.getVoucherId() + ":" + voucherOrder.getUserId())) {
+                toSave.add(voucherOrder);
+            }
+        }
+        if (toSave.isEmpty()) {
+            return toSave;
+        }
+        //每个券只更新一次库存
+        Map<Long, Long> counts = toSave.stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            if (!success) {
+                //整批回滚, 由调用方逐条写
+                throw new OutOfStockException("数据库库存不足, voucherId: " + voucherId + ", 需要: " + count);
+            }
+        });
+        //配合rewriteBatchedStatements=true, 驱动会改写成多行insert
+        saveBatch(toSave);
+        return toSave;
+    }
 
+    @Override
+    @Transactional
+    public List<VoucherOrder> cancelUnpaidOrders(List<Long> orderIds) {
+        //锁住还没支付的订单, 和支付的更新互斥, 查到的就是这次要取消的
+        List<VoucherOrder> unpaid = query().select("id", "user_id", "voucher_id")
+                .in("id", orderIds)
+                .eq("status", STATUS_UNPAID)
+                .last("FOR UPDATE")
+                .list();
+        if (unpaid.isEmpty()) {
+            return unpaid;
+        }
+        update().set("status", STATUS_CANCELED)
+                .in("id", unpaid.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .update();
+        //每个券只更新一次库存
+        Map<Long, Long> counts = unpaid.stream().collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update());
+        return unpaid;
+    }
 }
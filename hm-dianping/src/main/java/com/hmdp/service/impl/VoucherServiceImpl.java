@@ -7,8 +7,13 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillGate;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SeckillWaitingRoom;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -26,11 +31,26 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillGate seckillGate;
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 秒杀券的库存以redis为准, 数据库是异步扣的
+        for (Voucher voucher : vouchers) {
+            if (voucher.getStock() != null) {
+                Integer stock = seckillStock.totalStock(voucher.getId());
+                if (stock != null) {
+                    voucher.setStock(stock);
+                }
+            }
+        }
         // 返回结果
         return Result.ok(vouchers);
     }
@@ -47,5 +67,17 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        //事务提交之后再把库存和秒杀时间写到redis, 下单时只查redis
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                //热门券可以指定stockShards把库存拆成多个分片
+                seckillStock.init(seckillVoucher, voucher.getStockShards());
+                //本节点马上登记时间窗口, 其他节点由SeckillPreloader在开始前登记
+                seckillGate.register(seckillVoucher.getVoucherId(), seckillVoucher.getBeginTime(), seckillVoucher.getEndTime());
+                seckillWaitingRoom.register(seckillVoucher.getVoucherId(), seckillVoucher.getBeginTime(),
+                        seckillVoucher.getEndTime(), seckillVoucher.getStock());
+            }
+        });
     }
 }
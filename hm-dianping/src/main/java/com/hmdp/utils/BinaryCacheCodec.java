@@ -0,0 +1,406 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description 紧凑的二进制格式, 不写字段名, 数字用变长编码
+ * 只处理字段都是基本类型/包装类型/String/时间的实体类, 其他类型退回到json
+ * 值的头部带类的结构哈希, 实体加减字段后旧值解析失败, 按未命中处理重新查库
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    private static final byte FORMAT_OBJECT = 1;
+    private static final byte FORMAT_JSON = 2;
+    private static final byte FORMAT_LOGICAL_EXPIRE = 3;
+    //值本身是null, 和json里的data:null一样
+    private static final byte FORMAT_NULL = 4;
+
+    private final Map<Class<?>, ClassSchema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public String version() {
+        return "b1";
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Output out = new Output(64);
+        writeValue(out, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return readValue(new Input(bytes), type);
+    }
+
+    @Override
+    public byte[] encodeWithLogicalExpire(RedisData redisData) {
+        Output out = new Output(64);
+        out.writeByte(FORMAT_LOGICAL_EXPIRE);
+        out.writeVarLong(redisData.getExpireTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        //-1表示没有记录重建耗时
+        out.writeVarLong(redisData.getRebuildMillis() == null ? -1 : redisData.getRebuildMillis());
+        writeValue(out, redisData.getData());
+        return out.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeWithLogicalExpire(byte[] bytes, Class<?> type) {
+        Input in = new Input(bytes);
+        if (in.readByte() != FORMAT_LOGICAL_EXPIRE) {
+            throw new IllegalStateException("不是逻辑过期格式的缓存");
+        }
+        RedisData redisData = new RedisData();
+        long expireMillis = in.readVarLong();
+        redisData.setExpireTime(LocalDateTime.ofEpochSecond(Math.floorDiv(expireMillis, 1000L),
+                (int) Math.floorMod(expireMillis, 1000L) * 1_000_000, ZoneOffset.UTC));
+        long rebuildMillis = in.readVarLong();
+        redisData.setRebuildMillis(rebuildMillis < 0 ? null : rebuildMillis);
+        redisData.setData(readValue(in, type));
+        return redisData;
+    }
+
+    private void writeValue(Output out, Object value) {
+        if (value == null) {
+            out.writeByte(FORMAT_NULL);
+            return;
+        }
+        ClassSchema schema = schemas.computeIfAbsent(value.getClass(), ClassSchema::new);
+        if (!schema.supported) {
+            out.writeByte(FORMAT_JSON);
+            out.writeBytes(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        out.writeByte(FORMAT_OBJECT);
+        out.writeInt(schema.hash);
+        //null位图
+        byte[] nulls = new byte[(schema.fields.length + 7) / 8];
+        Object[] values = new Object[schema.fields.length];
+        for (int i = 0; i < schema.fields.length; i++) {
+            values[i] = schema.get(i, value);
+            if (values[i] == null) {
+                nulls[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.writeBytes(nulls);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                schema.types[i].write(out, values[i]);
+            }
+        }
+    }
+
+    private <R> R readValue(Input in, Class<R> type) {
+        byte format = in.readByte();
+        if (format == FORMAT_NULL) {
+            return null;
+        }
+        if (format == FORMAT_JSON) {
+            return JSONUtil.toBean(in.readRemainingString(), type);
+        }
+        if (format != FORMAT_OBJECT) {
+            throw new IllegalStateException("未知的缓存格式: " + format);
+        }
+        ClassSchema schema = schemas.computeIfAbsent(type, ClassSchema::new);
+        if (in.readInt() != schema.hash) {
+            throw new IllegalStateException("缓存的类结构已变化: " + type.getName());
+        }
+        byte[] nulls = in.readBytes((schema.fields.length + 7) / 8);
+        R value = type.cast(schema.newInstance());
+        for (int i = 0; i < schema.fields.length; i++) {
+            if ((nulls[i >>> 3] & (1 << (i & 7))) == 0) {
+                schema.set(i, value, schema.types[i].read(in));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 一个类的字段列表, 按字段名排序, 保证不同节点上顺序一致
+     */
+    private static class ClassSchema {
+        private final Field[] fields;
+        private final FieldType[] types;
+        private final int hash;
+        private final boolean supported;
+        private final Constructor<?> constructor;
+
+        private ClassSchema(Class<?> type) {
+            List<Field> fieldList = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        fieldList.add(field);
+                    }
+                }
+            }
+            fieldList.sort(Comparator.comparing(Field::getName));
+            this.fields = fieldList.toArray(new Field[0]);
+            this.types = new FieldType[fields.length];
+            StringBuilder signature = new StringBuilder(type.getName());
+            boolean allSupported = true;
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = FieldType.of(fields[i].getType());
+                if (types[i] == null) {
+                    allSupported = false;
+                    break;
+                }
+                fields[i].setAccessible(true);
+                signature.append(';').append(fields[i].getName()).append(':').append(types[i]);
+            }
+            Constructor<?> noArgs = null;
+            try {
+                noArgs = type.getDeclaredConstructor();
+                noArgs.setAccessible(true);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                allSupported = false;
+            }
+            this.constructor = noArgs;
+            this.supported = allSupported;
+            this.hash = signature.toString().hashCode();
+        }
+
+        private Object get(int index, Object target) {
+            try {
+                return fields[index].get(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void set(int index, Object target, Object value) {
+            try {
+                fields[index].set(target, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Object newInstance() {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private enum FieldType {
+        LONG {
+            void write(Output out, Object value) { out.writeVarLong((Long) value); }
+            Object read(Input in) { return in.readVarLong(); }
+        },
+        INT {
+            void write(Output out, Object value) { out.writeVarLong((Integer) value); }
+            Object read(Input in) { return (int) in.readVarLong(); }
+        },
+        SHORT {
+            void write(Output out, Object value) { out.writeVarLong((Short) value); }
+            Object read(Input in) { return (short) in.readVarLong(); }
+        },
+        BYTE {
+            void write(Output out, Object value) { out.writeByte((Byte) value); }
+            Object read(Input in) { return in.readByte(); }
+        },
+        BOOLEAN {
+            void write(Output out, Object value) { out.writeByte((byte) ((Boolean) value ? 1 : 0)); }
+            Object read(Input in) { return in.readByte() != 0; }
+        },
+        DOUBLE {
+            void write(Output out, Object value) { out.writeLong(Double.doubleToLongBits((Double) value)); }
+            Object read(Input in) { return Double.longBitsToDouble(in.readLong()); }
+        },
+        FLOAT {
+            void write(Output out, Object value) { out.writeInt(Float.floatToIntBits((Float) value)); }
+            Object read(Input in) { return Float.intBitsToFloat(in.readInt()); }
+        },
+        STRING {
+            void write(Output out, Object value) { out.writeString((String) value); }
+            Object read(Input in) { return in.readString(); }
+        },
+        BIG_DECIMAL {
+            void write(Output out, Object value) { out.writeString(((BigDecimal) value).toString()); }
+            Object read(Input in) { return new BigDecimal(in.readString()); }
+        },
+        LOCAL_DATE_TIME {
+            void write(Output out, Object value) {
+                LocalDateTime time = (LocalDateTime) value;
+                out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                out.writeVarLong(time.getNano());
+            }
+            Object read(Input in) { return LocalDateTime.ofEpochSecond(in.readVarLong(), (int) in.readVarLong(), ZoneOffset.UTC); }
+        },
+        LOCAL_DATE {
+            void write(Output out, Object value) { out.writeVarLong(((LocalDate) value).toEpochDay()); }
+            Object read(Input in) { return LocalDate.ofEpochDay(in.readVarLong()); }
+        };
+
+        abstract void write(Output out, Object value);
+
+        abstract Object read(Input in);
+
+        private static FieldType of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            } else if (type == Integer.class || type == int.class) {
+                return INT;
+            } else if (type == Short.class || type == short.class) {
+                return SHORT;
+            } else if (type == Byte.class || type == byte.class) {
+                return BYTE;
+            } else if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            } else if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            } else if (type == Float.class || type == float.class) {
+                return FLOAT;
+            } else if (type == String.class) {
+                return STRING;
+            } else if (type == BigDecimal.class) {
+                return BIG_DECIMAL;
+            } else if (type == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            } else if (type == LocalDate.class) {
+                return LOCAL_DATE;
+            }
+            return null;
+        }
+    }
+
+    private static class Output {
+        private byte[] buf;
+        private int size;
+
+        private Output(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        //zigzag + 变长编码, 小的正负数都只占1~2个字节
+        private void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[size++] = (byte) zigzag;
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes);
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    private static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        private Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        private byte readByte() {
+            return buf[pos++];
+        }
+
+        private byte[] readBytes(int n) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        private int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        private String readRemainingString() {
+            String s = new String(buf, pos, buf.length - pos, StandardCharsets.UTF_8);
+            pos = buf.length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @description 进程内的布隆过滤器, 用来拦截一定不存在的id, 防止缓存穿透
+ * 判断不存在就一定不存在, 判断存在有fpp的概率误判, 误判的id再由缓存空值兜底
+ * 位数组和哈希函数个数按预计元素个数和误判率算出来, 只能添加不能删除
+ */
+public class BloomFilter {
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long numBits;
+    private final int numHashFunctions;
+    private final AtomicLongArray bits;
+    /**
+     * 已经置为1的位数, 用来估算当前的实际误判率
+     */
+    private final AtomicLong bitCount = new AtomicLong();
+    private final AtomicLong insertions = new AtomicLong();
+    /**
+     * 启动时全量加载完之前不能用, 否则所有id都会被判断为不存在
+     */
+    private volatile boolean ready;
+
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("布隆过滤器参数错误, expectedInsertions: " + expectedInsertions + ", fpp: " + fpp);
+        }
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        // m = -n * ln(p) / (ln2)^2
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // 按long对齐
+        this.numBits = Math.max(64, (m + 63) / 64 * 64);
+        // k = m / n * ln2
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (numBits / 64));
+    }
+
+    public void put(String value) {
+        long[] hash = MurmurHash.hash128(value);
+        long combined = hash[0];
+        for (int i = 0; i < numHashFunctions; i++) {
+            // 两个64位哈希组合出k个哈希值
+            setBit((combined & Long.MAX_VALUE) % numBits);
+            combined += hash[1];
+        }
+        insertions.incrementAndGet();
+    }
+
+    public boolean mightContain(String value) {
+        long[] hash = MurmurHash.hash128(value);
+        long combined = hash[0];
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (!getBit((combined & Long.MAX_VALUE) % numBits)) {
+                return false;
+            }
+            combined += hash[1];
+        }
+        return true;
+    }
+
+    private void setBit(long index) {
+        int slot = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(slot);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(slot, old, old | mask));
+        bitCount.incrementAndGet();
+    }
+
+    private boolean getBit(long index) {
+        return (bits.get((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void markReady() {
+        this.ready = true;
+    }
+
+    /**
+     * 当前实际的误判率, 元素超过预计个数后会明显高于配置的fpp
+     */
+    public double expectedFpp() {
+        return Math.pow((double) bitCount.get() / numBits, numHashFunctions);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("insertions", insertions.get());
+        stats.put("configuredFpp", fpp);
+        stats.put("currentFpp", expectedFpp());
+        stats.put("numBits", numBits);
+        stats.put("numHashFunctions", numHashFunctions);
+        stats.put("memoryBytes", numBits / 8);
+        return stats;
+    }
+}
@@ -1,21 +1,37 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.CacheProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
-import org.yaml.snakeyaml.events.Event;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * @author hongyuan.shan
@@ -25,24 +41,233 @@ import java.util.function.Function;
 @Slf4j
 @Component
 public class CacheClient {
+    private static final String BLOOM_MESSAGE_SEPARATOR = "#";
+    private static final String VERSION_SEPARATOR = "@";
+    private static final byte[] EMPTY_VALUE = new byte[0];
     private final StringRedisTemplate stringRedisTemplate;
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR=
-            new ThreadPoolExecutor(10,10,0,
-                    TimeUnit.MINUTES,new LinkedBlockingDeque<>(100));
+    private final CacheRebuildScheduler rebuildScheduler;
+    private final CacheProperties.RefreshAhead refreshAhead;
+    private final CacheTtlPolicy ttlPolicy;
+    private final CacheMetrics metrics;
+    private final RedisScripts redisScripts;
+    private final RedisLockClient lockClient;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 一级缓存, key -> 反序列化好的对象, 命中时省掉一次redis往返和一次json解析
+     * caffeine的淘汰策略就是W-TinyLFU, 只有访问频率够高的key才能挤掉老的key
+     * 缓存的对象会被多个请求共享, 调用方不要修改返回的对象
+     */
+    private final Cache<String, LocalEntry> localCache;
+    /**
+     * 正在查redis/数据库的key
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    /**
+     * key前缀 -> 布隆过滤器, 过滤器里没有的id直接返回null, 不查redis也不查数据库
+     */
+    private final Map<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    /**
+     * 读写用的codec
+     */
+    private final CacheCodec codec;
+    /**
+     * 所有codec, 删除缓存时每种格式的key都要删掉
+     */
+    private final List<CacheCodec> allCodecs;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisMessageListenerContainer listenerContainer,
+                       CacheProperties cacheProperties,
+                       CacheRebuildScheduler rebuildScheduler,
+                       CacheMetrics metrics,
+                       RedisScripts redisScripts,
+                       RedisLockClient lockClient) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.metrics = metrics;
+        this.redisScripts = redisScripts;
+        this.lockClient = lockClient;
+        this.rebuildScheduler = rebuildScheduler;
+        this.refreshAhead = cacheProperties.getRefreshAhead();
+        this.ttlPolicy = new CacheTtlPolicy(cacheProperties.getExpiry());
+        CacheCodec json = new JsonCacheCodec();
+        CacheCodec binary = new BinaryCacheCodec();
+        this.allCodecs = Arrays.asList(json, binary);
+        this.codec = "binary".equalsIgnoreCase(cacheProperties.getCodec()) ? binary : json;
+        CacheProperties.Local local = cacheProperties.getLocal();
+        if (local.isEnabled()) {
+            //caffeine的maximumSize和maximumWeight不能同时用, 给每个entry一个最小权重, 这样条数最多也只能到maximumSize
+            int minWeight = (int) Math.max(1, local.getMaximumWeight() / local.getMaximumSize());
+            this.localCache = Caffeine.newBuilder()
+                    .maximumWeight(local.getMaximumWeight())
+                    .weigher((String key, LocalEntry entry) -> Math.max(entry.weight, minWeight))
+                    .expireAfterWrite(local.getExpireAfterWriteSeconds(), TimeUnit.SECONDS)
+                    .build();
+            //其他节点改了数据, 通过redis的发布订阅通知本节点删掉一级缓存
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> localCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        } else {
+            this.localCache = null;
+        }
+        //其他节点新增了数据, 本节点的布隆过滤器也要加上
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf(BLOOM_MESSAGE_SEPARATOR);
+            BloomFilter filter = bloomFilters.get(body.substring(0, index));
+            if (filter != null) {
+                filter.put(body.substring(index + 1));
+            }
+        }, new ChannelTopic(RedisConstants.CACHE_BLOOM_ADD_CHANNEL));
+    }
+
+    public void registerBloomFilter(String keyPrefix, BloomFilter filter){
+        bloomFilters.put(keyPrefix, filter);
+    }
+
+    /**
+     * 新增数据后调用, 加到本节点的布隆过滤器并广播给其他节点
+     * 广播只是为了让其他节点尽快生效, 失败了由各节点定时从数据库补加
+     */
+    public <ID> void addToBloomFilter(String keyPrefix, ID id){
+        BloomFilter filter = bloomFilters.get(keyPrefix);
+        if (filter == null) {
+            return;
+        }
+        filter.put(String.valueOf(id));
+        try {
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_BLOOM_ADD_CHANNEL, keyPrefix + BLOOM_MESSAGE_SEPARATOR + id);
+        } catch (Exception e) {
+            log.warn("广播布隆过滤器新增id失败, 等其他节点定时补加, key: {}, {}", keyPrefix + id, e.toString());
+        }
+    }
+
+    //过滤器还没加载完时一律放行
+    private <ID> boolean mightExist(String keyPrefix, ID id){
+        BloomFilter filter = bloomFilters.get(keyPrefix);
+        return filter == null || !filter.isReady() || filter.mightContain(String.valueOf(id));
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byte[] bytes = codec.encode(value);
+        metrics.valueSize(CacheTtlPolicy.prefixOf(key), bytes.length);
+        setBytes(key, bytes, time, unit);
+    }
+
+    /**
+     * 批量写入, 预热用: 序列化后一次pipeline写入redis
+     * @param values key -> value
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit){
+        if (values.isEmpty()){
+            return;
+        }
+        Map<byte[], byte[]> encoded = new LinkedHashMap<>(values.size() * 2);
+        //每个key单独算TTL, 同一批写入的key过期时间也是打散的
+        Map<byte[], Expiration> ttls = new LinkedHashMap<>(values.size() * 2);
+        values.forEach((key, value) -> {
+            byte[] rawKey = rawKey(codec, key);
+            byte[] bytes = codec.encode(value);
+            metrics.valueSize(CacheTtlPolicy.prefixOf(key), bytes.length);
+            encoded.put(rawKey, bytes);
+            ttls.put(rawKey, expiration(key, time, unit));
+        });
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            encoded.forEach((rawKey, bytes) -> connection.set(rawKey, bytes, ttls.get(rawKey), RedisStringCommands.SetOption.UPSERT));
+            return null;
+        });
+    }
+
+    /**
+     * 给已经写入的key设置打散后的过期时间, 不经过CacheClient序列化的key(例如list、zset)用
+     */
+    public Boolean expire(String key, Long time, TimeUnit unit){
+        return stringRedisTemplate.expire(key, ttlPolicy.ttlMillis(key, time, unit), TimeUnit.MILLISECONDS);
+    }
+
+    private Expiration expiration(String key, Long time, TimeUnit unit){
+        return Expiration.milliseconds(ttlPolicy.ttlMillis(key, time, unit));
+    }
+
+    /**
+     * 各个key前缀的过期时间分布
+     */
+    public Map<String, Object> expiryStats(){
+        return ttlPolicy.stats();
+    }
+
+    /**
+     * 各个布隆过滤器的状态
+     */
+    public Map<String, Object> bloomStats(){
+        Map<String, Object> stats = new TreeMap<>();
+        bloomFilters.forEach((prefix, filter) -> stats.put(prefix, filter.stats()));
+        return stats;
+    }
+
+    /**
+     * key加上codec的版本标记, json格式不带标记, 和之前的key一样
+     */
+    private byte[] rawKey(CacheCodec keyCodec, String key){
+        return versionedKey(keyCodec, key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String versionedKey(CacheCodec keyCodec, String key){
+        String version = keyCodec.version();
+        return version.isEmpty() ? key : key + VERSION_SEPARATOR + version;
+    }
+
+    private byte[] getBytes(String key){
+        byte[] rawKey = rawKey(codec, key);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    private void setBytes(String key, byte[] value, Long time, TimeUnit unit){
+        byte[] rawKey = rawKey(codec, key);
+        Expiration ttl = expiration(key, time, unit);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, value, ttl, RedisStringCommands.SetOption.UPSERT));
+    }
+
+    //解析失败(比如实体类改了字段)按未命中处理, 重新查库覆盖掉
+    private <R> R decode(String key, byte[] bytes, Class<R> type){
+        try {
+            return codec.decode(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存解析失败, key: {}, {}", key, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 删除缓存, 并广播给所有节点删掉各自的一级缓存
+     * 数据库更新之后调用
+     */
+    public void invalidate(String key){
+        byte[][] rawKeys = allCodecs.stream().map(c -> rawKey(c, key)).toArray(byte[][]::new);
+        stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.del(rawKeys));
+        if (localCache != null) {
+            localCache.invalidate(key);
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+        }
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * @param rebuildMillis 这次查库花的时间, 提前刷新时用
+     */
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildMillis){
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        //逻辑过期时间也打散, 避免同一批key同时触发重建
+        redisData.setExpireTime(LocalDateTime.now().plus(ttlPolicy.ttlMillis(key, time, unit), ChronoUnit.MILLIS));
+        redisData.setRebuildMillis(rebuildMillis);
+        byte[] rawKey = rawKey(codec, key);
+        byte[] bytes = codec.encodeWithLogicalExpire(redisData);
+        metrics.valueSize(CacheTtlPolicy.prefixOf(key), bytes.length);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(rawKey, bytes));
     }
 
 
@@ -60,68 +285,365 @@ public class CacheClient {
      * @return    R表示返回值   类型不确定的都要用泛型
      */
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit){
+        if (!mightExist(keyPrefix, id)){
+            metrics.rejected(keyPrefix);
+            return null;
+        }
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(json)){
-            return JSONUtil.toBean(json, type);
+        //先查一级缓存
+        R local = getLocal(key, type);
+        if (local != null){
+            metrics.hit(keyPrefix, true);
+            return local;
         }
-        if (json != null){
+        //同一个key同时只放一个线程去查redis和数据库, 其他线程等它的结果
+        return singleFlight(keyPrefix, key, () -> {
+            byte[] bytes = getBytes(key);
+            //空数组是缓存的空值
+            if (bytes != null && bytes.length == 0){
+                metrics.nullHit(keyPrefix);
+                return null;
+            }
+            R r = bytes == null ? null : decode(key, bytes, type);
+            if (r != null){
+                metrics.hit(keyPrefix, false);
+                putLocal(key, r, bytes.length);
+                return r;
+            }
+            metrics.miss(keyPrefix);
+            return loadFromDb(keyPrefix, key, id, dbFallBack, time, unit);
+        });
+    }
+
+    /**
+     * 互斥锁解决缓存击穿
+     * 本节点内的并发由singleFlight合并, redis的锁只用来协调不同节点, 拿不到锁的只有每个节点的那一个线程在重试
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit){
+        if (!mightExist(keyPrefix, id)){
+            metrics.rejected(keyPrefix);
             return null;
         }
+        String key = keyPrefix + id;
+        R local = getLocal(key, type);
+        if (local != null){
+            metrics.hit(keyPrefix, true);
+            return local;
+        }
+        return singleFlight(keyPrefix, key, () -> {
+            String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RedisConstants.LOCK_SHOP_TTL);
+            boolean contended = false;
+            RedisLock lock = lockClient.getLock(lockKey);
+            String owner = lockClient.owner();
+            //先订阅锁的释放通知再查, 查完到开始等待之间释放的也能收到
+            try (RedisLockClient.Waiter waiter = lockClient.waiter(lockKey)) {
+                while (true) {
+                    long seen = waiter.version();
+                    //查缓存, 不存在就顺便抢锁, 一次往返
+                    RedisScripts.LockedValue lockedValue = redisScripts.getOrAcquireRebuildLock(
+                            versionedKey(codec, key), lockKey, owner, lockClient.getLeaseMillis(), false);
+                    byte[] bytes = lockedValue.getValue();
+                    //缓存的空值
+                    if (bytes != null && bytes.length == 0){
+                        metrics.nullHit(keyPrefix);
+                        return null;
+                    }
+                    R r = bytes == null ? null : decode(key, bytes, type);
+                    if (r != null){
+                        //等别的节点重建完之后读到的, 也算命中
+                        metrics.hit(keyPrefix, false);
+                        putLocal(key, r, bytes.length);
+                        return r;
+                    }
+                    if (lockedValue.isLocked()){
+                        lock.acquired();
+                        try {
+                            metrics.miss(keyPrefix);
+                            return loadFromDb(keyPrefix, key, id, dbFallBack, time, unit);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    //每次查询只记一次, 不按重试次数记
+                    if (!contended){
+                        contended = true;
+                        metrics.lockContended(keyPrefix);
+                    }
+                    //超过LOCK_SHOP_TTL还没等到说明持锁的节点出问题了, 自己去查数据库
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0){
+                        metrics.miss(keyPrefix);
+                        return loadFromDb(keyPrefix, key, id, dbFallBack, time, unit);
+                    }
+                    //等持有者释放锁的通知, 不再固定间隔轮询
+                    try {
+                        waiter.await(seen, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("等待缓存重建被中断", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private <R, ID> R loadFromDb(String keyPrefix, String key, ID id, Function<ID, R> dbFallBack, Long time, TimeUnit unit){
+        long begin = System.nanoTime();
         R apply = dbFallBack.apply(id);
+        metrics.load(keyPrefix, System.nanoTime() - begin);
         if (apply == null){
-            stringRedisTemplate.opsForValue().set(key, "", 2, TimeUnit.MINUTES);
+            setBytes(key, EMPTY_VALUE, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
             return null;
         }
-        this.set(key, apply, time, unit);
+        byte[] bytes = codec.encode(apply);
+        metrics.valueSize(keyPrefix, bytes.length);
+        setBytes(key, bytes, time, unit);
+        putLocal(key, apply, bytes.length);
         return apply;
     }
 
+    /**
+     * 同一个key并发进来的请求, 只有第一个执行loader, 其余的等待同一个CompletableFuture
+     * loader执行完就从inFlight里移除, 不缓存结果, 结果的缓存交给一级缓存和redis
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T singleFlight(String keyPrefix, String key, Supplier<T> loader){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null){
+            metrics.coalesced(keyPrefix);
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            T value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 批量版的queryWithPassThrough, 列表接口用
+     * 一级缓存 -> 一次MGET -> 没命中的一次性查数据库 -> pipeline批量写回, 不管多少个id都是常数次往返
+     * @param dbBatchFallBack 批量查数据库, 返回id -> 数据, 查不到的id不放进map
+     * @return id -> 数据, 按ids的顺序, 不存在的id不在结果里
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                                        Function<Collection<ID>, Map<ID, R>> dbBatchFallBack,
+                                                        Long time, TimeUnit unit){
+        Map<ID, R> result = new LinkedHashMap<>(ids.size() * 2);
+        if (ids.isEmpty()){
+            return result;
+        }
+        List<ID> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        //先查一级缓存, 剩下的再去redis
+        List<ID> remoteIds = new ArrayList<>();
+        int localHits = 0;
+        int redisHits = 0;
+        int nullHits = 0;
+        for (ID id : distinctIds) {
+            if (!mightExist(keyPrefix, id)){
+                metrics.rejected(keyPrefix);
+                continue;
+            }
+            R local = getLocal(keyPrefix + id, type);
+            if (local != null){
+                localHits++;
+                result.put(id, local);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()){
+            List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            byte[][] rawKeys = keys.stream().map(key -> rawKey(codec, key)).toArray(byte[][]::new);
+            List<byte[]> valueList = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] bytes = valueList == null ? null : valueList.get(i);
+                //空数组是缓存的空值, 直接跳过
+                if (bytes != null && bytes.length == 0){
+                    nullHits++;
+                    continue;
+                }
+                R r = bytes == null ? null : decode(keys.get(i), bytes, type);
+                if (r != null){
+                    redisHits++;
+                    putLocal(keys.get(i), r, bytes.length);
+                    result.put(remoteIds.get(i), r);
+                } else {
+                    missIds.add(remoteIds.get(i));
+                }
+            }
+        }
+        metrics.hits(keyPrefix, localHits, redisHits, nullHits, missIds.size());
+        if (!missIds.isEmpty()){
+            long begin = System.nanoTime();
+            Map<ID, R> dbMap = dbBatchFallBack.apply(missIds);
+            metrics.load(keyPrefix, System.nanoTime() - begin);
+            Map<byte[], byte[]> values = new LinkedHashMap<>(missIds.size() * 2);
+            Map<byte[], Expiration> ttls = new LinkedHashMap<>(missIds.size() * 2);
+            for (ID id : missIds) {
+                String key = keyPrefix + id;
+                R r = dbMap == null ? null : dbMap.get(id);
+                byte[] rawKey = rawKey(codec, key);
+                if (r == null){
+                    values.put(rawKey, EMPTY_VALUE);
+                    ttls.put(rawKey, expiration(key, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES));
+                    continue;
+                }
+                byte[] bytes = codec.encode(r);
+                metrics.valueSize(keyPrefix, bytes.length);
+                values.put(rawKey, bytes);
+                ttls.put(rawKey, expiration(key, time, unit));
+                putLocal(key, r, bytes.length);
+                result.put(id, r);
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                values.forEach((rawKey, bytes) ->
+                        connection.set(rawKey, bytes, ttls.get(rawKey), RedisStringCommands.SetOption.UPSERT));
+                return null;
+            });
+        }
+        //按传进来的顺序返回
+        Map<ID, R> ordered = new LinkedHashMap<>(result.size() * 2);
+        for (ID id : distinctIds) {
+            R r = result.get(id);
+            if (r != null){
+                ordered.put(id, r);
+            }
+        }
+        return ordered;
+    }
+
+    private <R> R getLocal(String key, Class<R> type){
+        if (localCache == null){
+            return null;
+        }
+        LocalEntry entry = localCache.getIfPresent(key);
+        if (entry != null && type.isInstance(entry.value)){
+            return type.cast(entry.value);
+        }
+        return null;
+    }
+
+    //空值不放一级缓存, 新增数据时不用再去清理各个节点
+    private void putLocal(String key, Object value, int weight){
+        if (localCache != null) {
+            localCache.put(key, new LocalEntry(value, weight));
+        }
+    }
+
 
     public <R, ID> R queryWithLogicalExpire(String prefix, ID id, Class<R> type, Function<ID, R> dbFallBack, Long time, TimeUnit unit){
         String key = prefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
         //不存在  直接返回
-        if (StrUtil.isBlank(json)){
+        if (bytes == null || bytes.length == 0){
+            metrics.miss(prefix);
+            return null;
+        }
+        //过期时间和数据一次解析出来, 不用先转RedisData再把JSONObject转一遍
+        RedisData redisData = decodeWithLogicalExpire(key, bytes, type);
+        if (redisData == null){
+            metrics.miss(prefix);
             return null;
         }
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        //为什么不能强转
-        // Shop shop = (Shop) redisData.getData();
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
+        metrics.hit(prefix, false);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
-        //没过期
-        if (expireTime.isAfter(LocalDateTime.now())){
+        //没过期, 并且不需要提前刷新
+        boolean expired = !expireTime.isAfter(LocalDateTime.now());
+        if (!expired && !shouldRefreshEarly(redisData)){
             //直接返回店铺信息
             return r;
         }
-        //过期了,重建缓存
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        //获取锁失败, 直接返回
-        if (!tryLock(lockKey)){
-            return r;
+        if (expired){
+            metrics.staleServed(prefix);
+        }
+        //过期了, 交给重建线程池, 同一个key只会提交一次, 线程池满了也直接返回旧数据
+        rebuildScheduler.submit(key, () -> rebuildWithLogicalExpire(prefix, key, id, type, dbFallBack, time, unit, expireTime));
+        return r;
+    }
+
+    /**
+     * XFetch提前刷新: now - rebuildMillis * beta * ln(random) >= expireTime 时就开始重建
+     * 越接近过期、重建越慢, 提前刷新的概率越大; 很少访问的key几乎不会在过期前被抽中
+     */
+    private boolean shouldRefreshEarly(RedisData redisData){
+        if (!refreshAhead.isEnabled() || redisData.getRebuildMillis() == null || redisData.getRebuildMillis() <= 0){
+            return false;
         }
+        long now = System.currentTimeMillis();
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double gap = -redisData.getRebuildMillis() * refreshAhead.getBeta() * Math.log(ThreadLocalRandom.current().nextDouble());
+        return now + gap >= expireAt;
+    }
 
-        CACHE_REBUILD_EXECUTOR.execute(() -> {
-            try {
-                R r1 = dbFallBack.apply(id);
-                this.setWithLogicalExpire(key, r1, time, unit);
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                unLock(lockKey);
+    /**
+     * 在重建线程里抢锁, 请求线程除了一次GET不再访问redis
+     * 抢锁和再查一次缓存在同一个脚本里, 一次往返
+     */
+    private <R, ID> void rebuildWithLogicalExpire(String prefix, String key, ID id, Class<R> type, Function<ID, R> dbFallBack,
+                                                  Long time, TimeUnit unit, LocalDateTime seenExpireTime){
+        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+        RedisLock lock = lockClient.getLock(lockKey);
+        RedisScripts.LockedValue lockedValue = redisScripts.getOrAcquireRebuildLock(
+                versionedKey(codec, key), lockKey, lockClient.owner(), lockClient.getLeaseMillis(), true);
+        //获取锁失败, 其他节点在重建
+        if (!lockedValue.isLocked()){
+            metrics.lockContended(prefix);
+            return;
+        }
+        lock.acquired();
+        try {
+            //拿到锁时的最新值, 过期时间变了说明别的节点刚重建完
+            byte[] bytes = lockedValue.getValue();
+            RedisData latest = bytes == null || bytes.length == 0 ? null : decodeWithLogicalExpire(key, bytes, type);
+            if (latest != null && !latest.getExpireTime().equals(seenExpireTime)){
+                return;
             }
-        });
-        return r;
+            long begin = System.nanoTime();
+            R r = dbFallBack.apply(id);
+            long cost = System.nanoTime() - begin;
+            metrics.rebuild(prefix, cost);
+            this.setWithLogicalExpire(key, r, time, unit, TimeUnit.NANOSECONDS.toMillis(cost));
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private Boolean tryLock(String key){
-        Boolean ret = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(ret);
+    private RedisData decodeWithLogicalExpire(String key, byte[] bytes, Class<?> type){
+        try {
+            return codec.decodeWithLogicalExpire(bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存解析失败, key: {}, {}", key, e.toString());
+            return null;
+        }
     }
 
-    private void unLock(String key){
-        stringRedisTemplate.delete(key);
+    private static class LocalEntry {
+        private final Object value;
+        /**
+         * 序列化后的大小, 作为caffeine的权重
+         */
+        private final int weight;
+
+        private LocalEntry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
     }
 }
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * @description 缓存value的序列化方式
+ * 不同的codec写到不同的key上(key带版本标记), 滚动升级时新老节点各读各的, 互不影响
+ */
+public interface CacheCodec {
+
+    /**
+     * 写到key上的版本标记, 空串表示不带标记, 兼容老版本的key
+     */
+    String version();
+
+    byte[] encode(Object value);
+
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 逻辑过期的value, 过期时间、重建耗时和数据一起序列化
+     */
+    byte[] encodeWithLogicalExpire(RedisData redisData);
+
+    /**
+     * 一次解析出过期时间和数据, 返回的RedisData里data已经是type类型
+     */
+    RedisData decodeWithLogicalExpire(byte[] bytes, Class<?> type);
+}
@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description CacheClient的指标, 按key前缀打tag
+ * cache.requests{result=hit|null_hit|miss|rejected, level=local|redis}: 查询结果, null_hit是命中缓存的空值, rejected是被布隆过滤器拦截
+ * cache.coalesced: 同一个key并发未命中时等待其他线程结果的次数
+ * cache.lock.contended: 抢重建锁失败的次数
+ * cache.stale.served: 逻辑过期后返回旧数据的次数
+ * cache.load{mode=sync|rebuild}: 查数据库(dbFallBack)的耗时
+ * cache.value.size: 序列化后value的字节数
+ */
+@Component
+public class CacheMetrics {
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final MeterRegistry registry;
+    /**
+     * key前缀 -> 这个前缀的所有指标, 避免每次都去registry里按名字和tag查找
+     */
+    private final Map<String, PrefixMeters> meters = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void hit(String prefix, boolean local) {
+        PrefixMeters m = meters(prefix);
+        (local ? m.localHit : m.redisHit).increment();
+    }
+
+    public void nullHit(String prefix) {
+        meters(prefix).nullHit.increment();
+    }
+
+    public void miss(String prefix) {
+        meters(prefix).miss.increment();
+    }
+
+    public void hits(String prefix, int local, int redis, int nullHit, int miss) {
+        PrefixMeters m = meters(prefix);
+        m.localHit.increment(local);
+        m.redisHit.increment(redis);
+        m.nullHit.increment(nullHit);
+        m.miss.increment(miss);
+    }
+
+    public void rejected(String prefix) {
+        meters(prefix).rejected.increment();
+    }
+
+    public void coalesced(String prefix) {
+        meters(prefix).coalesced.increment();
+    }
+
+    public void lockContended(String prefix) {
+        meters(prefix).lockContended.increment();
+    }
+
+    public void staleServed(String prefix) {
+        meters(prefix).staleServed.increment();
+    }
+
+    public void load(String prefix, long nanos) {
+        meters(prefix).load.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void rebuild(String prefix, long nanos) {
+        meters(prefix).rebuild.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void valueSize(String prefix, int bytes) {
+        meters(prefix).valueSize.record(bytes);
+    }
+
+    private PrefixMeters meters(String prefix) {
+        return meters.computeIfAbsent(prefix, p -> new PrefixMeters(registry, p));
+    }
+
+    /**
+     * 每个前缀的命中率、查库耗时、value大小, actuator的cache端点用
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new TreeMap<>();
+        meters.forEach((prefix, m) -> {
+            Map<String, Object> prefixStats = new LinkedHashMap<>();
+            double localHit = m.localHit.count();
+            double redisHit = m.redisHit.count();
+            double nullHit = m.nullHit.count();
+            double miss = m.miss.count();
+            double total = localHit + redisHit + nullHit + miss;
+            prefixStats.put("localHit", (long) localHit);
+            prefixStats.put("redisHit", (long) redisHit);
+            prefixStats.put("nullHit", (long) nullHit);
+            prefixStats.put("miss", (long) miss);
+            prefixStats.put("hitRatio", total == 0 ? 0 : (localHit + redisHit + nullHit) / total);
+            prefixStats.put("rejected", (long) m.rejected.count());
+            prefixStats.put("coalesced", (long) m.coalesced.count());
+            prefixStats.put("lockContended", (long) m.lockContended.count());
+            prefixStats.put("staleServed", (long) m.staleServed.count());
+            prefixStats.put("loadMillis", timerStats(m.load));
+            prefixStats.put("rebuildMillis", timerStats(m.rebuild));
+            HistogramSnapshot size = m.valueSize.takeSnapshot();
+            Map<String, Object> sizeStats = new LinkedHashMap<>();
+            sizeStats.put("count", size.count());
+            sizeStats.put("mean", size.mean());
+            sizeStats.put("max", size.max());
+            prefixStats.put("valueBytes", sizeStats);
+            stats.put(prefix, prefixStats);
+        });
+        return stats;
+    }
+
+    private static Map<String, Object> timerStats(Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", snapshot.count());
+        stats.put("mean", snapshot.mean(TimeUnit.MILLISECONDS));
+        stats.put("max", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+            stats.put("p" + (int) (percentile.percentile() * 100), percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return stats;
+    }
+
+    private static class PrefixMeters {
+        private final Counter localHit;
+        private final Counter redisHit;
+        private final Counter nullHit;
+        private final Counter miss;
+        private final Counter rejected;
+        private final Counter coalesced;
+        private final Counter lockContended;
+        private final Counter staleServed;
+        private final Timer load;
+        private final Timer rebuild;
+        private final DistributionSummary valueSize;
+
+        private PrefixMeters(MeterRegistry registry, String prefix) {
+            localHit = requests(registry, prefix, "hit", "local");
+            redisHit = requests(registry, prefix, "hit", "redis");
+            nullHit = requests(registry, prefix, "null_hit", "redis");
+            miss = requests(registry, prefix, "miss", "redis");
+            rejected = requests(registry, prefix, "rejected", "bloom");
+            coalesced = registry.counter("cache.coalesced", "prefix", prefix);
+            lockContended = registry.counter("cache.lock.contended", "prefix", prefix);
+            staleServed = registry.counter("cache.stale.served", "prefix", prefix);
+            load = loadTimer(registry, prefix, "sync");
+            rebuild = loadTimer(registry, prefix, "rebuild");
+            valueSize = DistributionSummary.builder("cache.value.size")
+                    .baseUnit("bytes")
+                    .tag("prefix", prefix)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+        }
+
+        private static Counter requests(MeterRegistry registry, String prefix, String result, String level) {
+            return registry.counter("cache.requests", "prefix", prefix, "result", result, "level", level);
+        }
+
+        private static Timer loadTimer(MeterRegistry registry, String prefix, String mode) {
+            return Timer.builder("cache.load")
+                    .tag("prefix", prefix)
+                    .tag("mode", mode)
+                    .publishPercentiles(PERCENTILES)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description 全局共享的缓存重建线程池
+ * 同一个key同时只会有一个重建任务, 线程池满了不抛异常, 返回false让调用方继续返回旧数据
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+    private final ThreadPoolExecutor executor;
+    /**
+     * 已提交还没执行完的key
+     */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalRebuildNanos = new LongAdder();
+    private final AtomicLong maxRebuildNanos = new AtomicLong();
+
+    public CacheRebuildScheduler(CacheProperties cacheProperties) {
+        CacheProperties.Rebuild rebuild = cacheProperties.getRebuild();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(rebuild.getThreads(), rebuild.getThreads(), 0, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(rebuild.getQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交重建任务
+     * @return true: 已提交; false: 这个key已经在重建或者线程池满了, 调用方直接返回旧数据
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        if (!inFlight.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, rebuild));
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            rejected.increment();
+            log.debug("缓存重建线程池已满, 继续返回旧数据, key: {}", key);
+            return false;
+        }
+    }
+
+    private void run(String key, Runnable rebuild) {
+        long begin = System.nanoTime();
+        try {
+            rebuild.run();
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.error("缓存重建失败, key: {}", key, e);
+        } finally {
+            long cost = System.nanoTime() - begin;
+            totalRebuildNanos.add(cost);
+            maxRebuildNanos.accumulateAndGet(cost, Math::max);
+            inFlight.remove(key);
+        }
+    }
+
+    public boolean isRebuilding(String key) {
+        return inFlight.contains(key);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long finished = completed.sum() + failed.sum();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("inFlight", inFlight.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgRebuildMillis", finished == 0 ? 0 : totalRebuildNanos.sum() / finished / 1_000_000.0);
+        stats.put("maxRebuildMillis", maxRebuildNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
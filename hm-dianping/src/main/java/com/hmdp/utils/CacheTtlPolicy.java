@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description 缓存过期时间打散, 防止缓存雪崩
+ * 同一批写入的key(预热、批量更新)如果TTL完全一样会在同一秒过期, 一起打到数据库
+ * 实际TTL = ttl + random(0, ttl * jitterRatio), 只会延长不会缩短, 比例可以按key前缀单独配置
+ * 同时按前缀记录计划过期时间的分布, 用来确认过期是否被打散
+ */
+public class CacheTtlPolicy {
+    private final double jitterRatio;
+    private final Map<String, Double> prefixJitterRatio;
+    private final long bucketMillis;
+    /**
+     * key前缀 -> 过期时间所在的桶(毫秒时间戳 / bucketMillis) -> 写入时算出的过期数量
+     */
+    private final Map<String, Map<Long, LongAdder>> histograms = new ConcurrentHashMap<>();
+    /**
+     * 上次清理过期桶时的当前桶, 每个桶的时间段内最多清理一次
+     */
+    private final AtomicLong prunedBucket = new AtomicLong();
+
+    public CacheTtlPolicy(CacheProperties.Expiry expiry) {
+        this.jitterRatio = expiry.getJitterRatio();
+        this.prefixJitterRatio = expiry.getPrefixJitterRatio();
+        this.bucketMillis = TimeUnit.SECONDS.toMillis(Math.max(1, expiry.getHistogramBucketSeconds()));
+    }
+
+    /**
+     * 算出加了随机量的TTL并记录到过期分布里
+     * @return 毫秒
+     */
+    public long ttlMillis(String key, long time, TimeUnit unit) {
+        String prefix = prefixOf(key);
+        long ttl = unit.toMillis(time);
+        double ratio = prefixJitterRatio.getOrDefault(prefix, jitterRatio);
+        long jitter = (long) (ttl * ratio);
+        if (jitter > 0) {
+            ttl += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        record(prefix, System.currentTimeMillis() + ttl);
+        return ttl;
+    }
+
+    private void record(String prefix, long expireAt) {
+        Map<Long, LongAdder> histogram = histograms.computeIfAbsent(prefix, p -> new ConcurrentHashMap<>());
+        histogram.computeIfAbsent(expireAt / bucketMillis, b -> new LongAdder()).increment();
+        //已经过去的桶没用了, 进入新的桶时由一个线程清掉, 不在每次写入时遍历
+        long current = System.currentTimeMillis() / bucketMillis;
+        long pruned = prunedBucket.get();
+        if (current > pruned && prunedBucket.compareAndSet(pruned, current)) {
+            prune(current);
+        }
+    }
+
+    private void prune(long current) {
+        histograms.values().forEach(histogram -> histogram.keySet().removeIf(bucket -> bucket < current));
+    }
+
+    /**
+     * key前缀: 最后一个冒号之前的部分, 例如 cache:shop:1 -> cache:shop:
+     */
+    static String prefixOf(String key) {
+        int index = key.lastIndexOf(':');
+        return index < 0 ? key : key.substring(0, index + 1);
+    }
+
+    /**
+     * 每个前缀未来各个时间桶里会过期的key数量, 以及最大的桶和平均每个桶的数量
+     * 最大值远大于平均值说明过期时间扎堆了
+     */
+    public Map<String, Object> stats() {
+        long current = System.currentTimeMillis() / bucketMillis;
+        Map<String, Object> stats = new TreeMap<>();
+        histograms.forEach((prefix, histogram) -> {
+            Map<Long, Long> buckets = new TreeMap<>();
+            histogram.forEach((bucket, count) -> {
+                if (bucket >= current) {
+                    //桶的起始时间, 秒
+                    buckets.put(bucket * bucketMillis / 1000, count.sum());
+                }
+            });
+            long total = buckets.values().stream().mapToLong(Long::longValue).sum();
+            long peak = buckets.values().stream().mapToLong(Long::longValue).max().orElse(0);
+            Map<String, Object> prefixStats = new TreeMap<>();
+            prefixStats.put("bucketSeconds", bucketMillis / 1000);
+            prefixStats.put("scheduled", total);
+            prefixStats.put("peakBucket", peak);
+            prefixStats.put("avgBucket", buckets.isEmpty() ? 0 : (double) total / buckets.size());
+            prefixStats.put("buckets", Collections.unmodifiableMap(buckets));
+            stats.put(prefix, prefixStats);
+        });
+        return stats;
+    }
+}
@@ -0,0 +1,126 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.AuthProperties;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 登录信息的本地缓存, RefreshTokenInterceptor用
+ * 原来每个带token的请求都要HGETALL + EXPIRE两次redis调用, 现在活跃用户基本不访问redis:
+ * 1. token -> UserDTO缓存在本地, 最多localTtlSeconds秒
+ * 2. 记下redis里token的过期时间, 剩余有效期低于refreshThreshold才EXPIRE续期
+ * 3. 登出时通过发布订阅通知所有节点删掉本地缓存
+ */
+@Slf4j
+@Component
+public class LoginSessionCache {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScripts redisScripts;
+    private final Cache<String, Session> sessions;
+    private final long refreshThresholdMillis;
+
+    public LoginSessionCache(StringRedisTemplate stringRedisTemplate,
+                             RedisMessageListenerContainer listenerContainer,
+                             AuthProperties authProperties,
+                             RedisScripts redisScripts) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScripts = redisScripts;
+        AuthProperties.Session session = authProperties.getSession();
+        this.refreshThresholdMillis = TimeUnit.MINUTES.toMillis(session.getRefreshThresholdMinutes());
+        if (session.isEnabled()) {
+            this.sessions = Caffeine.newBuilder()
+                    .maximumSize(session.getMaximumSize())
+                    .expireAfterWrite(session.getLocalTtlSeconds(), TimeUnit.SECONDS)
+                    .build();
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> sessions.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(RedisConstants.LOGIN_INVALIDATE_CHANNEL));
+        } else {
+            this.sessions = null;
+        }
+    }
+
+    /**
+     * 根据token查登录用户, 顺便续期
+     * @return 没登录或者已经过期返回null; 返回的对象会被多个请求共享, 不要修改
+     */
+    public UserDTO get(String token) {
+        if (sessions == null) {
+            return load(token).orElse(null);
+        }
+        Session session = sessions.getIfPresent(token);
+        if (session == null) {
+            session = load(token).map(user -> new Session(user, System.currentTimeMillis() + ttlMillis())).orElse(null);
+            if (session == null) {
+                return null;
+            }
+            sessions.put(token, session);
+            return session.user;
+        }
+        //剩余有效期不多了才续期, 多个线程同时发现也只是多续几次
+        long now = System.currentTimeMillis();
+        if (session.redisExpireAt - now < refreshThresholdMillis) {
+            session.redisExpireAt = now + ttlMillis();
+            stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY + token, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        }
+        return session.user;
+    }
+
+    //查redis并续期, 一次往返
+    private Optional<UserDTO> load(String token) {
+        Map<Object, Object> userMap = redisScripts.getAndTouchSession(RedisConstants.LOGIN_USER_KEY + token,
+                TimeUnit.MINUTES.toSeconds(RedisConstants.LOGIN_USER_TTL));
+        if (userMap.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false));
+    }
+
+    private static long ttlMillis() {
+        return TimeUnit.MINUTES.toMillis(RedisConstants.LOGIN_USER_TTL);
+    }
+
+    /**
+     * 登出: 删除redis里的token, 并通知所有节点
+     */
+    public void logout(String token) {
+        stringRedisTemplate.delete(RedisConstants.LOGIN_USER_KEY + token);
+        invalidate(token);
+    }
+
+    /**
+     * 删除所有节点上这个token的本地缓存
+     */
+    public void invalidate(String token) {
+        if (sessions == null) {
+            return;
+        }
+        sessions.invalidate(token);
+        stringRedisTemplate.convertAndSend(RedisConstants.LOGIN_INVALIDATE_CHANNEL, token);
+    }
+
+    private static class Session {
+        private final UserDTO user;
+        /**
+         * 本节点估计的redis里token的过期时间
+         */
+        private volatile long redisExpireAt;
+
+        private Session(UserDTO user, long redisExpireAt) {
+            this.user = user;
+            this.redisExpireAt = redisExpireAt;
+        }
+    }
+}
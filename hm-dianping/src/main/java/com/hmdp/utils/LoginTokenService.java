@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.AuthProperties;
+import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 登录token的签发、校验和吊销, 两种模式:
+ * redis: 随机的uuid, 用户信息存在redis的login:token:里, 每次请求要查(有本地缓存)
+ * signed: 用户信息签名后放在token里, 校验不访问redis, 登出的token加到黑名单
+ * 校验时按token的格式区分, 切换模式时已经签发的token还能继续用
+ */
+@Component
+public class LoginTokenService {
+    public static final String MODE_SIGNED = "signed";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final LoginSessionCache loginSessionCache;
+    private final TokenDenylist tokenDenylist;
+    private final boolean signedMode;
+    private final long signedExpireMillis;
+    /**
+     * 没配置密钥时为null, 这时签名token一律校验不通过
+     */
+    private final SignedTokenCodec signedTokenCodec;
+
+    public LoginTokenService(StringRedisTemplate stringRedisTemplate,
+                             LoginSessionCache loginSessionCache,
+                             TokenDenylist tokenDenylist,
+                             AuthProperties authProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.loginSessionCache = loginSessionCache;
+        this.tokenDenylist = tokenDenylist;
+        AuthProperties.Signed signed = authProperties.getSigned();
+        this.signedMode = MODE_SIGNED.equalsIgnoreCase(authProperties.getTokenMode());
+        this.signedExpireMillis = TimeUnit.MINUTES.toMillis(signed.getExpireMinutes());
+        //signed模式必须配置密钥, 启动时就报错
+        this.signedTokenCodec = signedMode || StrUtil.isNotBlank(signed.getSecret())
+                ? new SignedTokenCodec(signed.getSecret()) : null;
+    }
+
+    /**
+     * 登录成功后签发token
+     */
+    public String createToken(UserDTO userDTO) {
+        if (signedMode) {
+            SignedToken token = new SignedToken(userDTO, System.currentTimeMillis() + signedExpireMillis,
+                    UUID.fastUUID().toString(true));
+            return signedTokenCodec.encode(token);
+        }
+        //生成token
+        String token = UUID.randomUUID().toString(true);
+        //userDTO对象id是Long类型,如果不转换会报错,stringRedisTemplate只支持String
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", userDTO.getId().toString());
+        userMap.put("nickName", userDTO.getNickName());
+        userMap.put("icon", userDTO.getIcon());
+        //保存到redis
+        String tokenKey = RedisConstants.LOGIN_USER_KEY + token;
+        stringRedisTemplate.opsForHash().putAll(tokenKey, userMap);
+        stringRedisTemplate.expire(tokenKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        return token;
+    }
+
+    /**
+     * @return token无效、过期或者已经登出返回null
+     */
+    public UserDTO getUser(String token) {
+        if (!SignedTokenCodec.isSignedToken(token)) {
+            return loginSessionCache.get(token);
+        }
+        SignedToken signedToken = decode(token);
+        return signedToken == null ? null : signedToken.getUser();
+    }
+
+    public void logout(String token) {
+        if (!SignedTokenCodec.isSignedToken(token)) {
+            loginSessionCache.logout(token);
+            return;
+        }
+        SignedToken signedToken = decode(token);
+        if (signedToken != null) {
+            tokenDenylist.revoke(signedToken.getJti(), signedToken.getExpireAt());
+        }
+    }
+
+    private SignedToken decode(String token) {
+        if (signedTokenCodec == null) {
+            return null;
+        }
+        SignedToken signedToken = signedTokenCodec.decode(token);
+        if (signedToken == null || tokenDenylist.isRevoked(signedToken.getJti())) {
+            return null;
+        }
+        return signedToken;
+    }
+}
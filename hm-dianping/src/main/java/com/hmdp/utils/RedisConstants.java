@@ -5,17 +5,45 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final String LOGIN_INVALIDATE_CHANNEL = "login:invalidate";
+    public static final String LOGIN_DENYLIST_KEY = "login:denylist";
+    public static final String LOGIN_DENYLIST_CHANNEL = "login:denylist";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_BLOOM_ADD_CHANNEL = "cache:bloom:add";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_ORDER_KEY = "lock:order:";
+    public static final String LOCK_SECKILL_PRELOAD_KEY = "lock:seckill:preload:";
+    public static final String LOCK_BLOG_HOT_KEY = "lock:blog:hot";
+    public static final String LOCK_BLOG_LIKE_FLUSH_KEY = "lock:blog:like-flush";
+    public static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_META_KEY = "seckill:meta:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_STREAM = "stream.orders.dead";
+    public static final String SECKILL_QUEUE_KEY = "seckill:queue:";
+    public static final String ORDER_TIMEOUT_KEY = "order:timeout";
+    public static final String ORDER_RELEASE_KEY = "order:release";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+
+    public static final String ID_KEY = "icr:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked-delta";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_LOADING_KEY = "blog:hot:loading";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
@@ -9,4 +9,8 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    /**
+     * 上次重建花了多少毫秒, 提前刷新时用来估算该提前多久
+     */
+    private Long rebuildMillis;
 }
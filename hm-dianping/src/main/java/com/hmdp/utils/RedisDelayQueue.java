@@ -0,0 +1,182 @@
+package com.hmdp.utils;
+
+import io.netty.util.HashedWheelTimer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @description 基于redis zset的延时队列, member是任务, score是到期时间(毫秒)
+ * 1. offer: ZADD, 任务存在redis里, 节点重启不丢
+ * 2. poll: 各节点定时领取horizon内到期的任务, 领取时在脚本里把score往后推一个租约, 其他节点在租约内领不到
+ * 3. 领到的任务放进本节点的时间轮, 到点后攒批交给handler, handler成功才ZREM; 失败或者节点挂了, 租约到期后被重新领取
+ * 所以handler要能重复执行
+ */
+@Slf4j
+public class RedisDelayQueue {
+    private final String key;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScripts redisScripts;
+    /**
+     * 每次领取多久之内到期的任务, 要大于poll的间隔
+     */
+    private final long horizonMillis;
+    /**
+     * 领取后多久没处理完会被重新领取, 要大于horizon加上处理一批的时间
+     */
+    private final long leaseMillis;
+    private final int batchSize;
+    /**
+     * 本节点时间轮里最多放多少个任务, 超过之后不再领取, 留给其他节点
+     */
+    private final int maxPending;
+    private final Consumer<List<String>> handler;
+
+    private final HashedWheelTimer wheel;
+    /**
+     * 已经到期等待交给handler的任务
+     */
+    private final BlockingQueue<String> due = new LinkedBlockingQueue<>();
+    /**
+     * 本节点已经领取还没处理完的任务, 租约到期后自己又领到同一个任务时不重复放进时间轮
+     */
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public RedisDelayQueue(String key, StringRedisTemplate stringRedisTemplate, RedisScripts redisScripts,
+                           long horizonMillis, long leaseMillis, int batchSize, int maxPending,
+                           Consumer<List<String>> handler) {
+        this.key = key;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScripts = redisScripts;
+        this.horizonMillis = horizonMillis;
+        this.leaseMillis = leaseMillis;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.handler = handler;
+        //10ms一格, 512格一圈, 近期任务的误差在10ms左右
+        this.wheel = new HashedWheelTimer(r -> {
+            Thread thread = new Thread(r, "delay-wheel-" + key);
+            thread.setDaemon(true);
+            return thread;
+        }, 10, TimeUnit.MILLISECONDS, 512);
+        this.worker = new Thread(this::work, "delay-worker-" + key);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 添加任务, ZADD NX: 已经存在的任务不改到期时间, 重复添加不会推迟
+     * @param deadline 到期时间, 毫秒
+     */
+    public void offer(Collection<String> members, long deadline) {
+        if (members.isEmpty()) {
+            return;
+        }
+        byte[] score = String.valueOf(deadline).getBytes(StandardCharsets.UTF_8);
+        List<byte[]> args = new ArrayList<>(members.size() * 2 + 2);
+        args.add(key.getBytes(StandardCharsets.UTF_8));
+        args.add("NX".getBytes(StandardCharsets.UTF_8));
+        for (String member : members) {
+            args.add(score);
+            args.add(member.getBytes(StandardCharsets.UTF_8));
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("ZADD", args.toArray(new byte[0][])));
+    }
+
+    public void remove(Collection<String> members) {
+        if (!members.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(key, members.toArray());
+        }
+    }
+
+    /**
+     * 领取horizon内到期的任务放进时间轮, 积压很多时一次领完
+     * @return 领取的任务数
+     */
+    public int poll() {
+        int total = 0;
+        while (running && claimed.size() < maxPending) {
+            long now = System.currentTimeMillis();
+            Map<String, Long> tasks = redisScripts.delayClaim(key, now + horizonMillis, leaseMillis, batchSize);
+            for (Map.Entry<String, Long> task : tasks.entrySet()) {
+                String member = task.getKey();
+                if (!claimed.add(member)) {
+                    continue;
+                }
+                long delay = task.getValue() - now;
+                if (delay <= 0) {
+                    due.add(member);
+                } else {
+                    wheel.newTimeout(timeout -> due.add(member), delay, TimeUnit.MILLISECONDS);
+                }
+            }
+            total += tasks.size();
+            if (tasks.size() < batchSize) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 队列里还有多少任务, 包括已经被领取还没处理完的
+     */
+    public long size() {
+        Long size = stringRedisTemplate.opsForZSet().zCard(key);
+        return size == null ? 0 : size;
+    }
+
+    public int pending() {
+        return claimed.size();
+    }
+
+    private void work() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                String first = due.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                due.drainTo(batch, batchSize - 1);
+                try {
+                    handler.accept(batch);
+                    remove(batch);
+                } catch (Exception e) {
+                    //不删除, 租约到期后重新领取
+                    log.warn("延时任务处理失败, key: {}, 条数: {}, {}", key, batch.size(), e.toString());
+                } finally {
+                    batch.forEach(claimed::remove);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 时间轮里没处理的任务不用管, 租约到期后由其他节点处理
+     */
+    public void close() {
+        running = false;
+        wheel.stop();
+        worker.interrupt();
+    }
+}
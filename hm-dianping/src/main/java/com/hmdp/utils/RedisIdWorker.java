@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @description 全局唯一、按时间递增的id: 符号位(1) + 时间戳(31, 秒) + 序列号(32)
+ * 序列号不是每个id都INCR一次, 而是用INCRBY一次从redis领一段(step个), 在内存里用CAS发号
+ * 当前号段用掉一半时在后台线程提前领下一段(双buffer), 正常情况下发号不访问redis也不加锁
+ * 序列号全局递增, 取低32位, 同一秒内发出的号不超过2^32个就不会重复
+ */
+@Component
+public class RedisIdWorker {
+    /**
+     * 2022-01-01 00:00:00 UTC
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    private static final int COUNT_BITS = 32;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long step;
+    /**
+     * 业务前缀 -> 号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private final ExecutorService loader;
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id.segment-step:1000}") long step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("号段长度必须大于0, step: " + step);
+        }
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.step = step;
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "id-segment-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public long nextId(String keyPrefix) {
+        long timestamp = System.currentTimeMillis() / 1000 - BEGIN_TIMESTAMP;
+        long sequence = nextSequence(buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new));
+        return timestamp << COUNT_BITS | (sequence & COUNT_MASK);
+    }
+
+    private long nextSequence(SegmentBuffer buffer) {
+        while (true) {
+            Segment segment = buffer.current.get();
+            long sequence = segment.cursor.getAndIncrement();
+            if (sequence <= segment.max) {
+                //用到一半, 只有发出这个号的线程去触发预取
+                if (sequence == segment.prefetchAt) {
+                    prefetch(buffer);
+                }
+                return sequence;
+            }
+            //当前号段用完了, 等下一段(一般已经预取好了), 只有一个线程能切换成功, 其他线程重新读current
+            CompletableFuture<Segment> next = prefetch(buffer);
+            Segment nextSegment;
+            try {
+                nextSegment = next.join();
+            } catch (CompletionException e) {
+                //领号段失败, 清掉让下次重新领
+                buffer.next.compareAndSet(next, null);
+                throw new IllegalStateException("从redis领取id号段失败, key: " + buffer.key, e.getCause());
+            }
+            if (buffer.current.compareAndSet(segment, nextSegment)) {
+                buffer.next.compareAndSet(next, null);
+            }
+        }
+    }
+
+    /**
+     * 已经在领下一段就返回那个future, 否则提交一个新的
+     */
+    private CompletableFuture<Segment> prefetch(SegmentBuffer buffer) {
+        CompletableFuture<Segment> next = buffer.next.get();
+        if (next != null) {
+            return next;
+        }
+        CompletableFuture<Segment> created = new CompletableFuture<>();
+        if (!buffer.next.compareAndSet(null, created)) {
+            return buffer.next.get();
+        }
+        loader.execute(() -> {
+            try {
+                Long max = stringRedisTemplate.opsForValue().increment(buffer.key, step);
+                created.complete(new Segment(max - step + 1, max));
+            } catch (Exception e) {
+                created.completeExceptionally(e);
+            }
+        });
+        return created;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    private static class SegmentBuffer {
+        private final String key;
+        private final AtomicReference<Segment> current = new AtomicReference<>(Segment.EMPTY);
+        private final AtomicReference<CompletableFuture<Segment>> next = new AtomicReference<>();
+
+        private SegmentBuffer(String keyPrefix) {
+            this.key = RedisConstants.ID_KEY + keyPrefix;
+        }
+    }
+
+    /**
+     * 号段 [start, max]
+     */
+    private static class Segment {
+        private static final Segment EMPTY = new Segment(0, -1);
+
+        private final AtomicLong cursor;
+        private final long max;
+        private final long prefetchAt;
+
+        private Segment(long start, long max) {
+            this.cursor = new AtomicLong(start);
+            this.max = max;
+            this.prefetchAt = start + (max - start) / 2;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 一把redis分布式锁, 由RedisLockClient.getLock创建, 用法和ReentrantLock一样:
+ * if (lock.tryLock(1, TimeUnit.SECONDS)) { try { ... } finally { lock.unlock(); } }
+ */
+public class RedisLock {
+    private final RedisLockClient client;
+    private final String key;
+
+    RedisLock(RedisLockClient client, String key) {
+        this.client = client;
+        this.key = key;
+    }
+
+    public boolean tryLock() {
+        return client.tryLock(key, 0);
+    }
+
+    /**
+     * @param waitTime 最多等多久, 等待期间靠释放通知唤醒, 不轮询
+     */
+    public boolean tryLock(long waitTime, TimeUnit unit) {
+        return client.tryLock(key, unit.toMillis(waitTime));
+    }
+
+    /**
+     * 当前线程已经通过lua脚本在redis里拿到了这把锁, 交给RedisLock续期和释放
+     */
+    public void acquired() {
+        client.acquired(key, client.owner());
+    }
+
+    public void unlock() {
+        client.unlock(key);
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,241 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description redis分布式锁
+ * 1. 持有者是 节点id:线程id, 释放和续期都会校验持有者, 不会删掉别人的锁
+ * 2. 可重入: 锁是一个hash, field是持有者, value是重入次数
+ * 3. 看门狗: 拿到锁之后每 租期/3 续一次期, 业务执行多久锁就持有多久; 节点挂了不再续期, 租期到了自动释放
+ * 4. 等锁不轮询: 释放时往 lock:channel:<key> 发通知, 等待的线程收到通知再去抢, 最多等到锁的剩余时间
+ */
+@Slf4j
+@Component
+public class RedisLockClient {
+    private final RedisScripts redisScripts;
+    private final long leaseMillis;
+    /**
+     * 本节点的标识, 和线程id一起作为锁的持有者
+     */
+    private final String nodeId = UUID.fastUUID().toString(true);
+    private final ScheduledExecutorService watchdog;
+    /**
+     * 锁key#持有者 -> 本节点持有的锁
+     */
+    private final Map<String, Holder> holders = new ConcurrentHashMap<>();
+    /**
+     * 锁key -> 等待这个锁释放的线程用的信号
+     */
+    private final Map<String, Signal> signals = new ConcurrentHashMap<>();
+
+    public RedisLockClient(RedisScripts redisScripts,
+                           RedisMessageListenerContainer listenerContainer,
+                           @Value("${hmdp.lock.lease-millis:30000}") long leaseMillis) {
+        this.redisScripts = redisScripts;
+        this.leaseMillis = leaseMillis;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lock-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //所有锁的释放通知用一个订阅, 消息内容是锁的key
+        listenerContainer.addMessageListener((message, pattern) -> {
+            Signal signal = signals.get(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (signal != null) {
+                signal.signalAll();
+            }
+        }, new PatternTopic(RedisConstants.LOCK_CHANNEL_PREFIX + "*"));
+    }
+
+    public RedisLock getLock(String key) {
+        return new RedisLock(this, key);
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * 当前线程作为持有者的标识
+     */
+    public String owner() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    boolean tryLock(String key, long waitMillis) {
+        String owner = owner();
+        Long ttl = redisScripts.lockAcquire(key, owner, leaseMillis);
+        if (ttl == null) {
+            acquired(key, owner);
+            return true;
+        }
+        if (waitMillis <= 0) {
+            return false;
+        }
+        long deadline = System.currentTimeMillis() + waitMillis;
+        try (Waiter waiter = waiter(key)) {
+            while (true) {
+                //先记下版本再抢锁, 抢锁失败之后到开始等待之间的释放通知不会丢
+                long seen = waiter.version();
+                ttl = redisScripts.lockAcquire(key, owner, leaseMillis);
+                if (ttl == null) {
+                    acquired(key, owner);
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                //持有者挂了收不到通知, 最多等到锁过期
+                waiter.await(seen, Math.min(ttl, remaining));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 锁已经在redis里拿到了(比如在lua脚本里一起抢的), 本节点记录重入次数并启动看门狗
+     */
+    void acquired(String key, String owner) {
+        holders.compute(key + "#" + owner, (holderKey, holder) -> {
+            if (holder != null) {
+                holder.count++;
+                return holder;
+            }
+            Holder created = new Holder();
+            created.count = 1;
+            long period = Math.max(1, leaseMillis / 3);
+            created.renewal = watchdog.scheduleAtFixedRate(() -> renew(key, owner), period, period, TimeUnit.MILLISECONDS);
+            return created;
+        });
+    }
+
+    private void renew(String key, String owner) {
+        try {
+            if (!redisScripts.lockRenew(key, owner, leaseMillis)) {
+                //锁已经过期或者被删了, 不再续期
+                log.warn("锁已经不属于当前持有者, 停止续期, key: {}, owner: {}", key, owner);
+                Holder holder = holders.remove(key + "#" + owner);
+                if (holder != null) {
+                    holder.renewal.cancel(false);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("锁续期失败, key: {}, {}", key, e.toString());
+        }
+    }
+
+    void unlock(String key) {
+        String owner = owner();
+        Long released;
+        try {
+            released = redisScripts.lockRelease(key, RedisConstants.LOCK_CHANNEL_PREFIX + key, owner, leaseMillis);
+        } finally {
+            holders.computeIfPresent(key + "#" + owner, (holderKey, holder) -> {
+                if (--holder.count > 0) {
+                    return holder;
+                }
+                holder.renewal.cancel(false);
+                return null;
+            });
+        }
+        if (released == null) {
+            log.warn("释放锁时已经不是持有者, key: {}, owner: {}", key, owner);
+        }
+    }
+
+    /**
+     * 等待锁释放的通知, 用完要close
+     */
+    public Waiter waiter(String key) {
+        Signal signal = signals.compute(key, (k, existing) -> {
+            Signal s = existing == null ? new Signal() : existing;
+            s.waiters++;
+            return s;
+        });
+        return new Waiter(key, signal);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
+    public class Waiter implements AutoCloseable {
+        private final String key;
+        private final Signal signal;
+
+        private Waiter(String key, Signal signal) {
+            this.key = key;
+            this.signal = signal;
+        }
+
+        public long version() {
+            return signal.version();
+        }
+
+        /**
+         * 等到seen之后有新的释放通知, 或者超时
+         */
+        public void await(long seen, long millis) throws InterruptedException {
+            signal.await(seen, millis);
+        }
+
+        @Override
+        public void close() {
+            signals.computeIfPresent(key, (k, s) -> --s.waiters == 0 ? null : s);
+        }
+    }
+
+    private static class Holder {
+        /**
+         * 重入次数, 只有持有的线程会改
+         */
+        private int count;
+        private ScheduledFuture<?> renewal;
+    }
+
+    private static class Signal {
+        private long version;
+        /**
+         * 只在signals.compute里修改
+         */
+        private int waiters;
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void signalAll() {
+            version++;
+            notifyAll();
+        }
+
+        synchronized void await(long seen, long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (version == seen) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                wait(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @description 多步redis操作的lua脚本, 每个脚本一次往返
+ * 脚本在resources/lua下, 启动时读取并算好sha1, 调用时走EVALSHA, redis重启丢了脚本(NOSCRIPT)会自动用EVAL重新加载
+ */
+@Slf4j
+@Component
+public class RedisScripts {
+    private static final DefaultRedisScript<List<String>> GET_AND_TOUCH_SESSION = listScript("get_and_touch_session");
+    private static final DefaultRedisScript<Long> LOCK_ACQUIRE = script("lock_acquire", Long.class);
+    private static final DefaultRedisScript<Long> LOCK_RELEASE = script("lock_release", Long.class);
+    private static final DefaultRedisScript<Long> LOCK_RENEW = script("lock_renew", Long.class);
+    private static final DefaultRedisScript<List<Object>> GET_OR_ACQUIRE_REBUILD_LOCK = listScript("get_or_acquire_rebuild_lock");
+    private static final DefaultRedisScript<Long> SECKILL = script("seckill", Long.class);
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_HOME = script("seckill_shard_home", Long.class);
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_TAKE = script("seckill_shard_take", Long.class);
+    private static final DefaultRedisScript<Long> SECKILL_RELEASE = script("seckill_release", Long.class);
+    private static final DefaultRedisScript<List<String>> DELAY_CLAIM = listScript("delay_claim");
+    private static final DefaultRedisScript<Long> QUEUE_JOIN = script("queue_join", Long.class);
+    private static final DefaultRedisScript<Long> BLOG_LIKE = script("blog_like", Long.class);
+    private static final DefaultRedisScript<List<String>> HASH_DRAIN = listScript("hash_drain");
+    private static final DefaultRedisScript<Long> BLOG_HOT_LOAD = script("blog_hot_load", Long.class);
+    private static final DefaultRedisScript<Long> BLOG_HOT_ADD = script("blog_hot_add", Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RedisScripts(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    static <T> DefaultRedisScript<T> script(String name, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("lua/" + name + ".lua"));
+        script.setResultType(resultType);
+        return script;
+    }
+
+    /**
+     * 返回多值的脚本, 元素类型由调用时的序列化器决定, List.class带不了泛型, 只能在这里转一次
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static <E> DefaultRedisScript<List<E>> listScript(String name) {
+        return (DefaultRedisScript) script(name, List.class);
+    }
+
+    /**
+     * 启动时先SCRIPT LOAD, 第一次调用就能命中EVALSHA; redis连不上不影响启动
+     */
+    @PostConstruct
+    public void preload() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (RedisScript<?> script : Arrays.asList(GET_AND_TOUCH_SESSION, LOCK_ACQUIRE, LOCK_RELEASE, LOCK_RENEW,
+                        GET_OR_ACQUIRE_REBUILD_LOCK, SECKILL,
+                        SECKILL_SHARD_HOME, SECKILL_SHARD_TAKE, SECKILL_RELEASE, DELAY_CLAIM, QUEUE_JOIN,
+                        BLOG_LIKE, HASH_DRAIN, BLOG_HOT_LOAD, BLOG_HOT_ADD)) {
+                    load(connection, script);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("预加载lua脚本失败, 第一次调用时再加载, {}", e.toString());
+        }
+    }
+
+    private static void load(RedisConnection connection, RedisScript<?> script) {
+        connection.scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 查登录信息, 存在就续期
+     * @return 不存在返回空map
+     */
+    public Map<Object, Object> getAndTouchSession(String key, long ttlSeconds) {
+        List<String> values = stringRedisTemplate.execute(GET_AND_TOUCH_SESSION, Collections.singletonList(key), String.valueOf(ttlSeconds));
+        Map<Object, Object> map = new LinkedHashMap<>();
+        if (values != null) {
+            for (int i = 0; i + 1 < values.size(); i += 2) {
+                map.put(values.get(i), values.get(i + 1));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * 抢可重入锁
+     * @return null: 拿到了; 否则是锁的剩余时间, 毫秒
+     */
+    public Long lockAcquire(String key, String owner, long leaseMillis) {
+        return stringRedisTemplate.execute(LOCK_ACQUIRE, Collections.singletonList(key), String.valueOf(leaseMillis), owner);
+    }
+
+    /**
+     * 释放可重入锁, 最后一次释放时往channel发通知
+     * @return null: 不是持有者; 0: 还有重入; 1: 已经释放
+     */
+    public Long lockRelease(String key, String channel, String owner, long leaseMillis) {
+        return stringRedisTemplate.execute(LOCK_RELEASE, Arrays.asList(key, channel), owner, String.valueOf(leaseMillis));
+    }
+
+    /**
+     * 续期
+     * @return false: 已经不是持有者了
+     */
+    public boolean lockRenew(String key, String owner, long leaseMillis) {
+        Long renewed = stringRedisTemplate.execute(LOCK_RENEW, Collections.singletonList(key), String.valueOf(leaseMillis), owner);
+        return renewed != null && renewed == 1;
+    }
+
+    /**
+     * 查缓存的同时按需抢重建锁, 锁的格式和lockAcquire一样, 抢到之后用RedisLock.acquired()接管
+     * @param alwaysLock true: 缓存存在也抢锁, 逻辑过期重建用; false: 只在缓存不存在时抢锁, 互斥锁用
+     */
+    //结果里既有byte[]也有数字, 只能用原始类型的序列化器
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LockedValue getOrAcquireRebuildLock(String key, String lockKey, String owner, long lockTtlMillis, boolean alwaysLock) {
+        //缓存的值可能是二进制格式, 结果按byte[]返回, 不转字符串
+        List<Object> result = stringRedisTemplate.execute(GET_OR_ACQUIRE_REBUILD_LOCK, RedisSerializer.string(), (RedisSerializer) RedisSerializer.byteArray(),
+                Arrays.asList(key, lockKey), owner, String.valueOf(lockTtlMillis), alwaysLock ? "1" : "0");
+        if (result == null || result.isEmpty()) {
+            return new LockedValue(null, false);
+        }
+        byte[] value = (byte[]) result.get(0);
+        Object acquired = result.get(1);
+        return new LockedValue(value, acquired instanceof Number && ((Number) acquired).longValue() == 1);
+    }
+
+    /**
+     * 秒杀资格判断, 成功时已经扣了库存并把订单写进stream
+     * @return 见SeckillResult
+     */
+    public SeckillResult seckill(Long voucherId, Long userId, long orderId) {
+        List<String> keys = Arrays.asList(
+                RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                RedisConstants.SECKILL_ORDER_KEY + voucherId,
+                RedisConstants.SECKILL_META_KEY + voucherId,
+                RedisConstants.SECKILL_ORDER_STREAM);
+        Long code = stringRedisTemplate.execute(SECKILL, keys,
+                userId.toString(), voucherId.toString(), String.valueOf(orderId), String.valueOf(System.currentTimeMillis()));
+        return SeckillResult.of(code == null ? -1 : code.intValue());
+    }
+
+    /**
+     * 分片库存: 在用户的home分片上判断时间和一人一单, 并尝试扣库存
+     * @return SHARD_EMPTY表示home分片没库存了, 但是已经记录了一人一单, 调用方去其他分片扣, 都扣不到要回滚
+     */
+    public SeckillResult seckillShardHome(String shardKey, String orderKey, Long userId) {
+        Long code = stringRedisTemplate.execute(SECKILL_SHARD_HOME, Arrays.asList(shardKey, orderKey),
+                userId.toString(), String.valueOf(System.currentTimeMillis()));
+        return SeckillResult.of(code == null ? -1 : code.intValue());
+    }
+
+    /**
+     * 从一个分片扣一个库存
+     */
+    public boolean seckillShardTake(String shardKey) {
+        Long taken = stringRedisTemplate.execute(SECKILL_SHARD_TAKE, Collections.singletonList(shardKey));
+        return taken != null && taken == 1;
+    }
+
+    /**
+     * 订单取消后归还库存并删掉一人一单的记录
+     * @param sharded stockKey是不是分片的hash
+     * @return 实际归还的库存数
+     */
+    public long seckillRelease(String stockKey, String orderKey, boolean sharded, List<Long> userIds) {
+        List<String> args = new ArrayList<>(userIds.size() + 1);
+        args.add(sharded ? "1" : "0");
+        userIds.forEach(userId -> args.add(userId.toString()));
+        Long released = stringRedisTemplate.execute(SECKILL_RELEASE, Arrays.asList(stockKey, orderKey), args.toArray());
+        return released == null ? 0 : released;
+    }
+
+    /**
+     * 排队取号, 重复取号返回原来的号
+     */
+    public long queueJoin(String key, Long userId, long ttlMillis) {
+        Long ticket = stringRedisTemplate.execute(QUEUE_JOIN, Collections.singletonList(key), userId.toString(), String.valueOf(ttlMillis));
+        if (ticket == null) {
+            throw new IllegalStateException("排队取号失败, key: " + key);
+        }
+        return ticket;
+    }
+
+    /**
+     * 延时队列领取到期时间在maxScore之前的任务, 领到的任务在leaseMillis内不会被其他节点领取
+     * @return member -> 到期时间, 毫秒
+     */
+    public Map<String, Long> delayClaim(String key, long maxScore, long leaseMillis, int limit) {
+        List<String> items = stringRedisTemplate.execute(DELAY_CLAIM, Collections.singletonList(key),
+                String.valueOf(maxScore), String.valueOf(leaseMillis), String.valueOf(limit));
+        Map<String, Long> claimed = new LinkedHashMap<>();
+        if (items != null) {
+            for (int i = 0; i + 1 < items.size(); i += 2) {
+                claimed.put(items.get(i), (long) Double.parseDouble(items.get(i + 1)));
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * 点赞/取消点赞, 点赞数的变化记到deltaKey, 同时改热门排行和正在加载的排行
+     * @return true: 点赞 false: 取消点赞
+     */
+    public boolean blogLike(String likedKey, String deltaKey, String hotKey, String loadingKey, Long blogId, Long userId) {
+        Long liked = stringRedisTemplate.execute(BLOG_LIKE, Arrays.asList(likedKey, deltaKey, hotKey, loadingKey),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), blogId.toString());
+        return liked != null && liked == 1;
+    }
+
+    /**
+     * 一批笔记写进正在加载的排行, 点赞数 = 数据库的liked + deltaKey里还没写库的变化
+     * @param liked 笔记id -> 数据库的liked
+     */
+    public void blogHotLoad(String loadingKey, String deltaKey, Map<Long, Integer> liked) {
+        List<String> args = new ArrayList<>(liked.size() * 2);
+        liked.forEach((id, count) -> {
+            args.add(id.toString());
+            args.add(String.valueOf(count == null ? 0 : count));
+        });
+        stringRedisTemplate.execute(BLOG_HOT_LOAD, Arrays.asList(loadingKey, deltaKey), args.toArray());
+    }
+
+    /**
+     * 新笔记加进排行或者正在加载的排行, 都不存在时不加
+     */
+    public void blogHotAdd(String hotKey, String loadingKey, Long blogId) {
+        stringRedisTemplate.execute(BLOG_HOT_ADD, Arrays.asList(hotKey, loadingKey), blogId.toString());
+    }
+
+    /**
+     * 取出整个hash并删除
+     */
+    public Map<String, String> hashDrain(String key) {
+        List<String> items = stringRedisTemplate.execute(HASH_DRAIN, Collections.singletonList(key));
+        Map<String, String> drained = new LinkedHashMap<>();
+        if (items != null) {
+            for (int i = 0; i + 1 < items.size(); i += 2) {
+                drained.put(items.get(i), items.get(i + 1));
+            }
+        }
+        return drained;
+    }
+
+    public enum SeckillResult {
+        SUCCESS(0, null),
+        OUT_OF_STOCK(1, "库存不足"),
+        DUPLICATE(2, "不能重复下单"),
+        NOT_STARTED(3, "秒杀尚未开始"),
+        ENDED(4, "秒杀已经结束"),
+        NOT_FOUND(5, "秒杀券不存在"),
+        SHARD_EMPTY(6, "库存不足"),
+        /**
+         * 不是脚本返回的: 分片扣了库存但订单没写进stream, 已经把库存和一人一单的记录还回去
+         */
+        ORDER_FAILED(-1, "下单失败, 请重试");
+
+        private final int code;
+        private final String message;
+
+        SeckillResult(int code, String message) {
+            this.code = code;
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        static SeckillResult of(int code) {
+            for (SeckillResult result : values()) {
+                if (result.code == code) {
+                    return result;
+                }
+            }
+            throw new IllegalStateException("秒杀脚本返回了未知的结果: " + code);
+        }
+    }
+
+    public static class LockedValue {
+        /**
+         * 缓存的值, 不存在为null
+         */
+        private final byte[] value;
+        /**
+         * 是否抢到了重建锁
+         */
+        private final boolean locked;
+
+        public LockedValue(byte[] value, boolean locked) {
+            this.value = value;
+            this.locked = locked;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+
+        public boolean isLocked() {
+            return locked;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 本节点的秒杀开关, 预加载时登记秒杀券的时间窗口, 到begin_time打开, 到end_time关闭
+ * 开关只是一个volatile字段, 窗口外的请求不访问redis直接拒绝
+ * 没登记过的券(比如刚在别的节点创建)放行, 由redis里的脚本判断时间
+ */
+@Slf4j
+@Component
+public class SeckillGate {
+    private final ScheduledExecutorService timer;
+    private final Clock clock;
+    /**
+     * voucherId -> 时间窗口
+     */
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    public SeckillGate() {
+        this(Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seckill-gate");
+            thread.setDaemon(true);
+            return thread;
+        }), Clock.systemDefaultZone());
+    }
+
+    /**
+     * 测试时传入手动触发的定时器和固定的时钟
+     */
+    SeckillGate(ScheduledExecutorService timer, Clock clock) {
+        this.timer = timer;
+        this.clock = clock;
+    }
+
+    /**
+     * 登记时间窗口, 已经登记过并且时间没变的不重复登记
+     */
+    public void register(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime) {
+        long begin = beginTime.atZone(clock.getZone()).toInstant().toEpochMilli();
+        long end = endTime.atZone(clock.getZone()).toInstant().toEpochMilli();
+        Window existing = windows.get(voucherId);
+        if (existing != null && existing.begin == begin && existing.end == end) {
+            return;
+        }
+        Window window = new Window(begin, end);
+        long now = clock.millis();
+        if (now >= end) {
+            window.state = State.CLOSED;
+        } else {
+            if (now >= begin) {
+                window.state = State.OPEN;
+            } else {
+                window.opening = timer.schedule(() -> window.state = State.OPEN, begin - now, TimeUnit.MILLISECONDS);
+            }
+            window.closing = timer.schedule(() -> window.state = State.CLOSED, end - now, TimeUnit.MILLISECONDS);
+        }
+        Window replaced = windows.put(voucherId, window);
+        if (replaced != null) {
+            replaced.cancel();
+        }
+        log.debug("登记秒杀时间窗口, voucherId: {}, state: {}", voucherId, window.state);
+    }
+
+    /**
+     * @return 窗口外返回NOT_STARTED或ENDED, 窗口内或者没登记过返回null
+     */
+    public RedisScripts.SeckillResult check(Long voucherId) {
+        Window window = windows.get(voucherId);
+        if (window == null) {
+            return null;
+        }
+        switch (window.state) {
+            case PENDING:
+                return RedisScripts.SeckillResult.NOT_STARTED;
+            case CLOSED:
+                return RedisScripts.SeckillResult.ENDED;
+            default:
+                return null;
+        }
+    }
+
+    public boolean isRegistered(Long voucherId) {
+        return windows.containsKey(voucherId);
+    }
+
+    /**
+     * 删掉已经结束超过retainMillis的窗口, 删掉之后的请求由redis里的脚本拒绝
+     */
+    public void evictEnded(long retainMillis) {
+        long threshold = clock.millis() - retainMillis;
+        windows.entrySet().removeIf(entry -> entry.getValue().end < threshold);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private enum State {
+        PENDING, OPEN, CLOSED
+    }
+
+    private static class Window {
+        private final long begin;
+        private final long end;
+        private volatile State state = State.PENDING;
+        private ScheduledFuture<?> opening;
+        private ScheduledFuture<?> closing;
+
+        private Window(long begin, long end) {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        private void cancel() {
+            if (opening != null) {
+                opening.cancel(false);
+            }
+            if (closing != null) {
+                closing.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * @description 秒杀库存, 两种模式:
+ * 不分片: 库存在seckill:stock:<voucherId>, 一个lua脚本完成判断、扣库存和写stream
+ * 分片: 库存平均拆到N个hash里, key带hash tag {<voucherId>:<i>}, 集群下分到不同的slot, 热门券不会压在一个redis核上
+ *   用户按userId取模落到home分片, 一人一单只记在home分片; home没库存了再依次去其他分片扣, 都扣不到就回滚一人一单的记录
+ *   订单由java写进stream, 不在脚本里写, 因为stream和分片不在同一个slot; 写stream失败时把扣掉的库存和一人一单的记录还回去
+ */
+@Slf4j
+@Component
+public class SeckillStock {
+    private static final String SHARDS_FIELD = "shards";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScripts redisScripts;
+    /**
+     * voucherId -> 分片数, 创建之后不会变
+     */
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    public SeckillStock(StringRedisTemplate stringRedisTemplate, RedisScripts redisScripts) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScripts = redisScripts;
+    }
+
+    /**
+     * 新增秒杀券时把库存和时间写到redis
+     * @param shards 分片数, 小于等于1不分片
+     */
+    public void init(SeckillVoucher seckillVoucher, Integer shards) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        int stock = seckillVoucher.getStock();
+        //每个分片至少1个库存
+        int shardCount = shards == null ? 1 : Math.max(1, Math.min(shards, stock));
+        String begin = String.valueOf(toMillis(seckillVoucher.getBeginTime()));
+        String end = String.valueOf(toMillis(seckillVoucher.getEndTime()));
+        Map<String, String> meta = new HashMap<>();
+        meta.put("begin", begin);
+        meta.put("end", end);
+        meta.put(SHARDS_FIELD, String.valueOf(shardCount));
+        if (shardCount == 1) {
+            stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+        } else {
+            for (int i = 0; i < shardCount; i++) {
+                Map<String, String> shard = new HashMap<>();
+                //余数分给前面的分片
+                shard.put("stock", String.valueOf(stock / shardCount + (i < stock % shardCount ? 1 : 0)));
+                shard.put("begin", begin);
+                shard.put("end", end);
+                stringRedisTemplate.opsForHash().putAll(shardKey(voucherId, i), shard);
+            }
+        }
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_META_KEY + voucherId, meta);
+        shardCounts.put(voucherId, shardCount);
+    }
+
+    /**
+     * 判断秒杀资格并扣库存, 成功时订单已经写进stream
+     */
+    public RedisScripts.SeckillResult deduct(Long voucherId, Long userId, long orderId) {
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null || shardCount <= 1) {
+            return redisScripts.seckill(voucherId, userId, orderId);
+        }
+        int home = (int) Math.floorMod(userId, (long) shardCount);
+        String orderKey = orderKey(voucherId, home);
+        RedisScripts.SeckillResult result = redisScripts.seckillShardHome(shardKey(voucherId, home), orderKey, userId);
+        //实际扣了库存的分片
+        int taken = home;
+        if (result == RedisScripts.SeckillResult.SHARD_EMPTY) {
+            taken = takeFromSiblings(voucherId, home, shardCount);
+            if (taken < 0) {
+                //所有分片都没库存了, 撤销一人一单的记录, 不然这个用户以后补了库存也买不了
+                stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+                return RedisScripts.SeckillResult.OUT_OF_STOCK;
+            }
+            result = RedisScripts.SeckillResult.SUCCESS;
+        }
+        if (result != RedisScripts.SeckillResult.SUCCESS) {
+            return result;
+        }
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(RedisConstants.SECKILL_ORDER_STREAM).ofMap(order));
+        } catch (RuntimeException e) {
+            log.warn("订单写入stream失败, 归还分片库存, voucherId: {}, userId: {}, {}", voucherId, userId, e.toString());
+            compensate(voucherId, taken, orderKey, userId);
+            return RedisScripts.SeckillResult.ORDER_FAILED;
+        }
+        return result;
+    }
+
+    /**
+     * @return 扣到库存的分片, 都没有返回-1
+     */
+    private int takeFromSiblings(Long voucherId, int home, int shardCount) {
+        for (int i = 1; i < shardCount; i++) {
+            int shard = (home + i) % shardCount;
+            if (redisScripts.seckillShardTake(shardKey(voucherId, shard))) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 写stream失败: 库存还给扣掉的分片, 删掉home分片上一人一单的记录, 用户可以重新抢
+     * 超时的情况下stream可能其实写进去了, 多出来的订单由数据库的库存和一人一单校验拦住
+     */
+    private void compensate(Long voucherId, int taken, String orderKey, Long userId) {
+        try {
+            stringRedisTemplate.opsForHash().increment(shardKey(voucherId, taken), "stock", 1);
+            stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+        } catch (RuntimeException e) {
+            log.error("归还分片库存失败, voucherId: {}, shard: {}, userId: {}", voucherId, taken, userId, e);
+        }
+    }
+
+    /**
+     * 订单取消后把库存还给redis, 并删掉这些用户的一人一单记录
+     * 分片的券还到用户的home分片, 一人一单也记在home分片上
+     * @return 实际归还的库存数, 用户不在已下单记录里的不还
+     */
+    public long release(Long voucherId, List<Long> userIds) {
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null) {
+            return 0;
+        }
+        if (shardCount <= 1) {
+            return redisScripts.seckillRelease(RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                    RedisConstants.SECKILL_ORDER_KEY + voucherId, false, userIds);
+        }
+        Map<Integer, List<Long>> byHome = userIds.stream()
+                .collect(Collectors.groupingBy(userId -> (int) Math.floorMod(userId, (long) shardCount)));
+        long released = 0;
+        for (Map.Entry<Integer, List<Long>> entry : byHome.entrySet()) {
+            released += redisScripts.seckillRelease(shardKey(voucherId, entry.getKey()),
+                    orderKey(voucherId, entry.getKey()), true, entry.getValue());
+        }
+        return released;
+    }
+
+    /**
+     * redis里剩余的总库存, 展示用; 不是秒杀券或者还没写到redis返回null
+     */
+    public Integer totalStock(Long voucherId) {
+        Integer shardCount = shardCount(voucherId);
+        if (shardCount == null) {
+            return null;
+        }
+        if (shardCount <= 1) {
+            String stock = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+            return stock == null ? null : Integer.valueOf(stock);
+        }
+        //所有分片一次pipeline读完
+        byte[] field = "stock".getBytes(StandardCharsets.UTF_8);
+        List<Object> stocks = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < shardCount; i++) {
+                connection.hGet(shardKey(voucherId, i).getBytes(StandardCharsets.UTF_8), field);
+            }
+            return null;
+        });
+        int total = 0;
+        for (Object stock : stocks) {
+            if (stock != null) {
+                total += Integer.parseInt(stock.toString());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 库存是否已经写到redis, 同时把分片数缓存到本节点, 之后的下单请求不用再查
+     */
+    public boolean isLoaded(Long voucherId) {
+        return shardCount(voucherId) != null;
+    }
+
+    /**
+     * @return 分片数, 秒杀券不存在返回null
+     */
+    private Integer shardCount(Long voucherId) {
+        Integer shardCount = shardCounts.get(voucherId);
+        if (shardCount != null) {
+            return shardCount;
+        }
+        List<Object> meta = stringRedisTemplate.opsForHash().multiGet(RedisConstants.SECKILL_META_KEY + voucherId,
+                Arrays.asList("begin", SHARDS_FIELD));
+        if (meta.get(0) == null) {
+            return null;
+        }
+        //之前不分片的秒杀券没有shards字段
+        shardCount = meta.get(1) == null ? 1 : Integer.valueOf(meta.get(1).toString());
+        shardCounts.put(voucherId, shardCount);
+        return shardCount;
+    }
+
+    static String shardKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    static String orderKey(Long voucherId, int shard) {
+        return RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.QueueTicket;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 秒杀排队: 用户先取号, 号按固定速率放行, 放行之后才能下单, 后端的压力和放行速率一样平稳
+ * 1. 取号: redis里按券发号(一次往返), 同一个用户重复取号拿到原来的号, 所有节点共用一个号序列, 先到先得
+ * 2. 放行: 开始时间和速率确定之后, 任意时刻放行到第几号是算出来的, 所有节点算出来一样, 不需要同步
+ *    放行到 = burst + (now - begin) * admitPerSecond, 开始之前是0
+ * 3. 查位置: 客户端带着号来查, 只算一次减法, 不访问redis
+ * 4. 号超过 库存*overbookRatio 的用户在取号时就告诉他大概率抢不到
+ */
+@Component
+public class SeckillWaitingRoom {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScripts redisScripts;
+    private final SoldOutRegistry soldOutRegistry;
+    private final SeckillProperties.WaitingRoom properties;
+    /**
+     * voucherId -> 排队的状态, 在预加载时登记
+     */
+    private final Map<Long, Room> rooms = new ConcurrentHashMap<>();
+
+    public SeckillWaitingRoom(StringRedisTemplate stringRedisTemplate, RedisScripts redisScripts,
+                              SoldOutRegistry soldOutRegistry, SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScripts = redisScripts;
+        this.soldOutRegistry = soldOutRegistry;
+        this.properties = seckillProperties.getWaitingRoom();
+    }
+
+    /**
+     * 和SeckillGate一起登记, 没开启排队时不登记
+     */
+    public void register(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime, int stock) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long begin = beginTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long end = endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        int rate = properties.getVoucherAdmitPerSecond().getOrDefault(voucherId, properties.getAdmitPerSecond());
+        Room existing = rooms.get(voucherId);
+        //本节点发过的号要保留
+        if (existing == null || existing.begin != begin || existing.end != end || existing.rate != rate) {
+            rooms.put(voucherId, new Room(begin, end, Math.max(1, rate), properties.getBurst(), stock));
+        }
+    }
+
+    public boolean isManaged(Long voucherId) {
+        return rooms.containsKey(voucherId);
+    }
+
+    /**
+     * 取号
+     * @return 不需要排队的券返回null
+     */
+    public QueueTicket join(Long voucherId, Long userId) {
+        Room room = rooms.get(voucherId);
+        if (room == null) {
+            return null;
+        }
+        Long ticket = room.tickets.get(userId);
+        if (ticket == null) {
+            //号在券结束之后一天过期
+            long ttl = Math.max(room.end - System.currentTimeMillis(), 0) + TimeUnit.DAYS.toMillis(1);
+            ticket = redisScripts.queueJoin(RedisConstants.SECKILL_QUEUE_KEY + voucherId, userId, ttl);
+            room.tickets.put(userId, ticket);
+        }
+        return status(room, voucherId, ticket);
+    }
+
+    /**
+     * 查排队位置, 只用本节点内存
+     * @return 不需要排队的券返回null
+     */
+    public QueueTicket status(Long voucherId, long ticket) {
+        Room room = rooms.get(voucherId);
+        return room == null ? null : status(room, voucherId, ticket);
+    }
+
+    /**
+     * 号超过 库存*overbookRatio 的大概率抢不到
+     */
+    public boolean isHopeless(Long voucherId, long ticket) {
+        Room room = rooms.get(voucherId);
+        return room != null && ticket > room.stock * properties.getOverbookRatio();
+    }
+
+    /**
+     * 下单前检查是否已经放行, 用户的号在本节点没有时去redis查一次
+     * @return 可以下单返回null, 否则返回原因
+     */
+    public String checkAdmitted(Long voucherId, Long userId) {
+        Room room = rooms.get(voucherId);
+        if (room == null) {
+            return null;
+        }
+        Long ticket = room.tickets.get(userId);
+        if (ticket == null) {
+            //在别的节点取的号
+            Object value = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_QUEUE_KEY + voucherId, userId.toString());
+            if (value == null) {
+                return "请先排队";
+            }
+            ticket = Long.valueOf(value.toString());
+            room.tickets.put(userId, ticket);
+        }
+        long position = ticket - room.admittedUpTo(System.currentTimeMillis());
+        return position > 0 ? "还没有轮到您, 前面还有" + position + "人" : null;
+    }
+
+    /**
+     * 删掉已经结束超过retainMillis的券, 本节点记的号也一起释放
+     */
+    public void evictEnded(long retainMillis) {
+        long threshold = System.currentTimeMillis() - retainMillis;
+        rooms.entrySet().removeIf(entry -> entry.getValue().end < threshold);
+    }
+
+    private QueueTicket status(Room room, Long voucherId, long ticket) {
+        long now = System.currentTimeMillis();
+        long position = Math.max(0, ticket - room.admittedUpTo(now));
+        QueueTicket queueTicket = new QueueTicket();
+        queueTicket.setTicket(ticket);
+        queueTicket.setPosition(position);
+        queueTicket.setAdmitted(position == 0);
+        //还没开始的要加上距离开始的时间
+        long waitMillis = Math.max(0, room.begin - now) + (long) Math.ceil(position * 1000.0 / room.rate);
+        queueTicket.setWaitSeconds((waitMillis + 999) / 1000);
+        queueTicket.setSoldOut(soldOutRegistry.isMarkedSoldOut(voucherId));
+        return queueTicket;
+    }
+
+    private static class Room {
+        private final long begin;
+        private final long end;
+        private final int rate;
+        private final int stock;
+        private final int burst;
+        /**
+         * 本节点发过或者查过的号, userId -> 号, 下单时不用再查redis
+         */
+        private final Map<Long, Long> tickets = new ConcurrentHashMap<>();
+
+        private Room(long begin, long end, int rate, int burst, int stock) {
+            this.begin = begin;
+            this.end = end;
+            this.rate = rate;
+            this.burst = burst;
+            this.stock = stock;
+        }
+
+        /**
+         * 放行到第几号
+         */
+        private long admittedUpTo(long now) {
+            if (now < begin) {
+                return 0;
+            }
+            return burst + (now - begin) * rate / 1000;
+        }
+    }
+}
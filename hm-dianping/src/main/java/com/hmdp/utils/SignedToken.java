@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * @description 签名token里的内容
+ */
+@Data
+@AllArgsConstructor
+public class SignedToken {
+    private UserDTO user;
+    /**
+     * 过期时间, 毫秒时间戳
+     */
+    private long expireAt;
+    /**
+     * token的唯一id, 吊销时加到黑名单里的是它
+     */
+    private String jti;
+}
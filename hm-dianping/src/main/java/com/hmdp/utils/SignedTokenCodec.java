@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * @description 带签名的无状态token: base64url(payload).base64url(HmacSHA256(payload))
+ * payload里带着UserDTO的字段、过期时间和token的唯一id(jti), 校验只需要算一次HMAC, 不访问redis
+ * 签名的key只在服务端, 客户端改了payload签名就对不上
+ */
+public class SignedTokenCodec {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char SEPARATOR = '.';
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    /**
+     * Mac不是线程安全的, 每个线程一个
+     */
+    private final ThreadLocal<Mac> mac;
+
+    public SignedTokenCodec(String secret) {
+        if (StrUtil.isBlank(secret) || secret.length() < 32) {
+            throw new IllegalArgumentException("签名token的密钥至少32个字符");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.mac = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac instance = Mac.getInstance(ALGORITHM);
+            instance.init(key);
+            return instance;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("初始化" + ALGORITHM + "失败", e);
+        }
+    }
+
+    public static boolean isSignedToken(String token) {
+        return token.indexOf(SEPARATOR) > 0;
+    }
+
+    public String encode(SignedToken token) {
+        JSONObject payload = new JSONObject();
+        payload.set("id", token.getUser().getId());
+        payload.set("n", token.getUser().getNickName());
+        payload.set("i", token.getUser().getIcon());
+        payload.set("exp", token.getExpireAt());
+        payload.set("jti", token.getJti());
+        byte[] bytes = payload.toString().getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(bytes) + SEPARATOR + ENCODER.encodeToString(mac.get().doFinal(bytes));
+    }
+
+    /**
+     * @return 签名不对、格式错误或者已经过期返回null
+     */
+    public SignedToken decode(String token) {
+        int index = token.indexOf(SEPARATOR);
+        if (index <= 0) {
+            return null;
+        }
+        byte[] bytes;
+        byte[] signature;
+        try {
+            bytes = DECODER.decode(token.substring(0, index));
+            signature = DECODER.decode(token.substring(index + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        //按固定时间比较, 不能从比较耗时猜签名
+        if (!MessageDigest.isEqual(mac.get().doFinal(bytes), signature)) {
+            return null;
+        }
+        JSONObject payload = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        long expireAt = payload.getLong("exp");
+        if (expireAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(payload.getLong("id"));
+        user.setNickName(payload.getStr("n"));
+        user.setIcon(payload.getStr("i"));
+        return new SignedToken(user, expireAt, payload.getStr("jti"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description 本节点记录已经卖完的秒杀券, 卖完之后的请求不访问redis直接返回
+ * redis返回库存不足时标记, 并通过发布订阅通知其他节点; 补了库存时清除
+ * 标记超过recheck时间后放一个请求去redis确认一次, 防止丢了清除消息之后一直认为卖完了
+ */
+@Component
+public class SoldOutRegistry {
+    private static final String SOLD_OUT = "+";
+    private static final String REPLENISHED = "-";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long recheckMillis;
+    /**
+     * voucherId -> 标记时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    public SoldOutRegistry(StringRedisTemplate stringRedisTemplate,
+                           RedisMessageListenerContainer listenerContainer,
+                           SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.recheckMillis = TimeUnit.SECONDS.toMillis(seckillProperties.getSoldOutRecheckSeconds());
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.startsWith(SOLD_OUT)) {
+                soldOut.put(voucherId, System.currentTimeMillis());
+            } else {
+                soldOut.remove(voucherId);
+            }
+        }, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt < recheckMillis) {
+            return true;
+        }
+        //到了复查时间, 只放一个请求过去, 其他请求继续按卖完处理
+        return !soldOut.replace(voucherId, markedAt, System.currentTimeMillis());
+    }
+
+    /**
+     * 只看本节点的标记, 不占用复查的名额, 展示用
+     */
+    public boolean isMarkedSoldOut(Long voucherId) {
+        return soldOut.containsKey(voucherId);
+    }
+
+    public void markSoldOut(Long voucherId) {
+        //已经标记过的不再广播
+        if (soldOut.put(voucherId, System.currentTimeMillis()) == null) {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 补了库存之后调用
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, REPLENISHED + voucherId);
+    }
+}
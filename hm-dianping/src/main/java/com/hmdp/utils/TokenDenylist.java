@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description 签名token的黑名单(已登出但还没过期的token)
+ * redis里是一个zset: member是jti, score是token的过期时间, 过期之后的token本身就校验不过了, 可以从黑名单里删掉
+ * 每个节点在本地保存一份完整的黑名单, 校验token时只查本地:
+ * 启动时全量加载, 新吊销的通过发布订阅同步, 定时全量对齐一次兜底丢失的消息
+ */
+@Slf4j
+@Component
+public class TokenDenylist {
+    private static final String MESSAGE_SEPARATOR = "#";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * jti -> token过期时间
+     */
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    public TokenDenylist(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf(MESSAGE_SEPARATOR);
+            revoked.put(body.substring(0, index), Long.valueOf(body.substring(index + 1)));
+        }, new ChannelTopic(RedisConstants.LOGIN_DENYLIST_CHANNEL));
+    }
+
+    public boolean isRevoked(String jti) {
+        return revoked.containsKey(jti);
+    }
+
+    public void revoke(String jti, long expireAt) {
+        if (expireAt <= System.currentTimeMillis()) {
+            return;
+        }
+        revoked.put(jti, expireAt);
+        stringRedisTemplate.opsForZSet().add(RedisConstants.LOGIN_DENYLIST_KEY, jti, expireAt);
+        stringRedisTemplate.convertAndSend(RedisConstants.LOGIN_DENYLIST_CHANNEL, jti + MESSAGE_SEPARATOR + expireAt);
+    }
+
+    /**
+     * 删掉已经过期的, 再和redis全量对齐
+     */
+    @PostConstruct
+    @Scheduled(fixedDelay = 60_000, initialDelay = 60_000)
+    public void sync() {
+        long now = System.currentTimeMillis();
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(RedisConstants.LOGIN_DENYLIST_KEY, Double.NEGATIVE_INFINITY, now);
+            Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(RedisConstants.LOGIN_DENYLIST_KEY, now, Double.POSITIVE_INFINITY);
+            if (tuples != null) {
+                tuples.forEach(tuple -> revoked.put(tuple.getValue(), tuple.getScore().longValue()));
+            }
+        } catch (Exception e) {
+            //redis不可用时继续用本地的黑名单
+            log.warn("同步token黑名单失败, {}", e.toString());
+        }
+        revoked.values().removeIf(expireAt -> expireAt <= now);
+    }
+
+    public int size() {
+        return revoked.size();
+    }
+}
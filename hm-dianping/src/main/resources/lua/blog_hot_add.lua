@@ -0,0 +1,10 @@
+-- 新发布的笔记加进排行: 排行已经加载的加到排行里, 正在加载的加到加载中的key里, 都没有的等加载时从数据库读
+-- KEYS[1]: 热门笔记排行  KEYS[2]: 正在加载的排行
+-- ARGV[1]: 笔记id
+for i = 1, 2 do
+    if redis.call('EXISTS', KEYS[i]) == 1 then
+        redis.call('ZADD', KEYS[i], 'NX', 0, ARGV[1])
+        return i
+    end
+end
+return 0
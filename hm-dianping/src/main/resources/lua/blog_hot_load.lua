@@ -0,0 +1,10 @@
+-- 加载一批笔记到正在加载的排行: 点赞数 = 数据库的liked + 还没写库的变化
+-- 读变化和写排行在一个脚本里, 和点赞脚本不会交错: 之前的点赞算在变化里, 之后的点赞直接改排行
+-- 调用方持有点赞数写库的锁, 数据库的liked和变化之间不会有正在写库的部分
+-- KEYS[1]: 正在加载的排行  KEYS[2]: 待写库的点赞数变化
+-- ARGV: 笔记id1, liked1, 笔记id2, liked2 ...
+for i = 1, #ARGV, 2 do
+    local delta = tonumber(redis.call('HGET', KEYS[2], ARGV[i]) or '0')
+    redis.call('ZADD', KEYS[1], tonumber(ARGV[i + 1]) + delta, ARGV[i])
+end
+return #ARGV / 2
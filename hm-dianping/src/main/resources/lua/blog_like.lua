@@ -0,0 +1,24 @@
+-- 点赞/取消点赞: 点过就取消, 没点过就点赞, 同时记下这篇笔记点赞数的变化, 由定时任务合并写库
+-- KEYS[1]: 点赞的用户 blog:liked:<id>, zset, score是点赞时间
+-- KEYS[2]: 待写库的点赞数变化, hash, field是笔记id
+-- KEYS[3]: 热门笔记排行, zset, score是点赞数
+-- KEYS[4]: 正在加载的排行; 这篇笔记已经加载进去的也要改, 还没加载的加载时会带上这次的变化
+-- ARGV[1]: userId  ARGV[2]: 当前时间, 毫秒  ARGV[3]: 笔记id
+-- 返回 1: 点赞 0: 取消点赞
+local delta = 1
+if redis.call('ZSCORE', KEYS[1], ARGV[1]) then
+    redis.call('ZREM', KEYS[1], ARGV[1])
+    delta = -1
+else
+    redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+end
+redis.call('HINCRBY', KEYS[2], ARGV[3], delta)
+for i = 3, 4 do
+    if redis.call('ZSCORE', KEYS[i], ARGV[3]) then
+        redis.call('ZINCRBY', KEYS[i], delta, ARGV[3])
+    end
+end
+if delta == 1 then
+    return 1
+end
+return 0
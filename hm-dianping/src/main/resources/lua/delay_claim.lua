@@ -0,0 +1,11 @@
+-- 延时队列领取任务: 取出到期时间在maxScore之前的任务, 把score往后推leaseMillis作为租约
+-- 租约内其他节点领不到; 领取的节点挂了, 租约到期后任务会被重新领取
+-- KEYS[1]: 延时队列的zset
+-- ARGV[1]: maxScore, 毫秒  ARGV[2]: 租约, 毫秒  ARGV[3]: 最多领取多少个
+-- 返回 member1, score1, member2, score2 ... score是原来的到期时间
+local items = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'WITHSCORES', 'LIMIT', 0, ARGV[3])
+local lease = tonumber(ARGV[2])
+for i = 1, #items, 2 do
+    redis.call('ZADD', KEYS[1], tonumber(items[i + 1]) + lease, items[i])
+end
+return items
@@ -0,0 +1,8 @@
+-- 查登录信息并续期, 一次往返代替HGETALL + EXPIRE
+-- KEYS[1]: login:token:xxx
+-- ARGV[1]: 有效期, 秒
+local user = redis.call('HGETALL', KEYS[1])
+if #user > 0 then
+    redis.call('EXPIRE', KEYS[1], ARGV[1])
+end
+return user
@@ -0,0 +1,18 @@
+-- 查缓存, 需要重建时顺便抢重建锁, 一次往返代替 GET + 抢锁 + GET
+-- 锁的格式和lock_acquire.lua一样(hash: 持有者 -> 重入次数), 抢到之后交给RedisLock续期和释放
+-- KEYS[1]: 缓存的key
+-- KEYS[2]: 锁的key
+-- ARGV[1]: 持有者
+-- ARGV[2]: 锁的租期, 毫秒
+-- ARGV[3]: 1表示缓存存在也抢锁(逻辑过期), 0表示只有缓存不存在才抢锁(互斥锁)
+-- 返回 {缓存的值或nil, 1抢到锁/0没抢到}
+local value = redis.call('GET', KEYS[1])
+if value and ARGV[3] ~= '1' then
+    return {value, 0}
+end
+if redis.call('EXISTS', KEYS[2]) == 0 or redis.call('HEXISTS', KEYS[2], ARGV[1]) == 1 then
+    redis.call('HINCRBY', KEYS[2], ARGV[1], 1)
+    redis.call('PEXPIRE', KEYS[2], ARGV[2])
+    return {value, 1}
+end
+return {value, 0}
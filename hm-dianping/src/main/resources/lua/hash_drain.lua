@@ -0,0 +1,8 @@
+-- 取出hash的全部内容并删除, 多个节点同时取时每条只会被一个节点拿到
+-- KEYS[1]: hash
+-- 返回 field1, value1, field2, value2 ...
+local items = redis.call('HGETALL', KEYS[1])
+if #items > 0 then
+    redis.call('DEL', KEYS[1])
+end
+return items
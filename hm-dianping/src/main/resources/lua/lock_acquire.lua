@@ -0,0 +1,14 @@
+-- 可重入锁: hash的field是持有者, value是重入次数
+-- KEYS[1]: 锁的key
+-- ARGV[1]: 租期, 毫秒  ARGV[2]: 持有者
+-- 返回 nil:拿到了锁  否则返回锁的剩余时间, 毫秒
+if redis.call('EXISTS', KEYS[1]) == 0 or redis.call('HEXISTS', KEYS[1], ARGV[2]) == 1 then
+    redis.call('HINCRBY', KEYS[1], ARGV[2], 1)
+    redis.call('PEXPIRE', KEYS[1], ARGV[1])
+    return nil
+end
+local ttl = redis.call('PTTL', KEYS[1])
+if ttl <= 0 then
+    return 1
+end
+return ttl
@@ -0,0 +1,15 @@
+-- 释放可重入锁, 只有持有者能释放, 重入次数减到0才删除并通知等待的节点
+-- KEYS[1]: 锁的key  KEYS[2]: 释放通知的channel
+-- ARGV[1]: 持有者  ARGV[2]: 租期, 毫秒
+-- 返回 nil:不是持有者(锁已经过期或者被别人拿了)  0:还有重入  1:已经释放
+if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then
+    return nil
+end
+local count = redis.call('HINCRBY', KEYS[1], ARGV[1], -1)
+if count > 0 then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('DEL', KEYS[1])
+redis.call('PUBLISH', KEYS[2], KEYS[1])
+return 1
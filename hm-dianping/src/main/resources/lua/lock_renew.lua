@@ -0,0 +1,8 @@
+-- 看门狗续期, 还是持有者才续
+-- KEYS[1]: 锁的key
+-- ARGV[1]: 租期, 毫秒  ARGV[2]: 持有者
+if redis.call('HEXISTS', KEYS[1], ARGV[2]) == 1 then
+    redis.call('PEXPIRE', KEYS[1], ARGV[1])
+    return 1
+end
+return 0
@@ -0,0 +1,11 @@
+-- 排队取号, 同一个用户重复取号拿到的还是原来的号
+-- KEYS[1]: seckill:queue:<voucherId>, hash: userId -> 号, 字段'#seq'是已经发出去的最大号
+-- ARGV[1]: userId  ARGV[2]: 过期时间, 毫秒
+local ticket = redis.call('HGET', KEYS[1], ARGV[1])
+if ticket then
+    return tonumber(ticket)
+end
+ticket = redis.call('HINCRBY', KEYS[1], '#seq', 1)
+redis.call('HSET', KEYS[1], ARGV[1], ticket)
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+return ticket
@@ -0,0 +1,29 @@
+-- 秒杀资格判断: 时间窗口、库存、一人一单, 都满足就扣库存、记录用户并把订单写进stream, 由后台线程写数据库
+-- KEYS[1]: 库存 seckill:stock:<voucherId>
+-- KEYS[2]: 已下单的用户 seckill:order:<voucherId>
+-- KEYS[3]: 时间窗口 seckill:meta:<voucherId>, hash: begin/end, 毫秒时间戳
+-- KEYS[4]: 订单stream
+-- ARGV[1]: userId  ARGV[2]: voucherId  ARGV[3]: orderId  ARGV[4]: 当前时间, 毫秒
+-- 返回 0:成功 1:库存不足 2:重复下单 3:未开始 4:已结束 5:不是秒杀券
+local window = redis.call('HMGET', KEYS[3], 'begin', 'end')
+if not window[1] then
+    return 5
+end
+local now = tonumber(ARGV[4])
+if now < tonumber(window[1]) then
+    return 3
+end
+if now > tonumber(window[2]) then
+    return 4
+end
+local stock = tonumber(redis.call('GET', KEYS[1]))
+if not stock or stock <= 0 then
+    return 1
+end
+if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 then
+    return 2
+end
+redis.call('DECR', KEYS[1])
+redis.call('SADD', KEYS[2], ARGV[1])
+redis.call('XADD', KEYS[4], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+return 0
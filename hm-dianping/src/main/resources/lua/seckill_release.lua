@@ -0,0 +1,14 @@
+-- 订单取消后归还redis库存并删掉一人一单的记录, 用户可以重新抢
+-- 只按实际删掉的用户数归还, 重复执行不会多还
+-- KEYS[1]: 库存, 不分片是string, 分片是hash的stock字段
+-- KEYS[2]: 已下单的用户
+-- ARGV[1]: 1:分片 0:不分片  ARGV[2..]: userId
+local removed = redis.call('SREM', KEYS[2], unpack(ARGV, 2))
+if removed > 0 then
+    if ARGV[1] == '1' then
+        redis.call('HINCRBY', KEYS[1], 'stock', removed)
+    else
+        redis.call('INCRBY', KEYS[1], removed)
+    end
+end
+return removed
@@ -0,0 +1,25 @@
+-- 分片库存的秒杀, 在用户所属的分片(home)上执行
+-- 一人一单的记录只放在home分片上, 同一个用户永远落到同一个分片, 所以只查这一个set
+-- KEYS[1]: 分片 seckill:stock:{<voucherId>:<i>}, hash: stock/begin/end
+-- KEYS[2]: 分片的已下单用户 seckill:order:{<voucherId>:<i>}
+-- ARGV[1]: userId  ARGV[2]: 当前时间, 毫秒
+-- 返回 0:成功 2:重复下单 3:未开始 4:已结束 5:不是秒杀券 6:home分片没库存了, 已经占了一人一单的位置, 去其他分片扣
+local shard = redis.call('HMGET', KEYS[1], 'stock', 'begin', 'end')
+if not shard[2] then
+    return 5
+end
+local now = tonumber(ARGV[2])
+if now < tonumber(shard[2]) then
+    return 3
+end
+if now > tonumber(shard[3]) then
+    return 4
+end
+if redis.call('SADD', KEYS[2], ARGV[1]) == 0 then
+    return 2
+end
+if tonumber(shard[1]) > 0 then
+    redis.call('HINCRBY', KEYS[1], 'stock', -1)
+    return 0
+end
+return 6
@@ -0,0 +1,9 @@
+-- 从其他分片扣一个库存
+-- KEYS[1]: 分片 seckill:stock:{<voucherId>:<i>}
+-- 返回 1:扣成功 0:这个分片也没有了
+local stock = tonumber(redis.call('HGET', KEYS[1], 'stock'))
+if stock and stock > 0 then
+    redis.call('HINCRBY', KEYS[1], 'stock', -1)
+    return 1
+end
+return 0
@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 不依赖真实redis和数据库, 用mock验证并发未命中时只有一个线程去查redis和数据库
+ */
+class CacheClientTest {
+    private static final int THREADS = 64;
+    private static final long DB_COST_MILLIS = 200;
+
+    private RedisScripts redisScripts;
+    private CacheClient cacheClient;
+    private SimpleMeterRegistry meterRegistry;
+    private final AtomicInteger dbCalls = new AtomicInteger();
+    private final Map<String, byte[]> redis = new ConcurrentHashMap<>();
+    /**
+     * 单个线程从开始到拿到结果的最长耗时
+     */
+    private final AtomicLong slowest = new AtomicLong();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        //查缓存并抢锁的脚本: 缓存不存在(或者要求必须抢锁)时抢锁, 锁永远抢得到
+        redisScripts = mock(RedisScripts.class);
+        when(redisScripts.getOrAcquireRebuildLock(anyString(), anyString(), anyString(), anyLong(), anyBoolean()))
+                .thenAnswer(invocation -> {
+                    byte[] value = redis.get(invocation.<String>getArgument(0));
+                    return new RedisScripts.LockedValue(value, value == null || invocation.<Boolean>getArgument(4));
+                });
+        //写进去的值能读出来, 晚到的线程会正常命中缓存
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.get(any(byte[].class))).thenAnswer(invocation -> redis.get(key(invocation.getArgument(0))));
+        when(connection.set(any(byte[].class), any(byte[].class), any(Expiration.class), any(RedisStringCommands.SetOption.class)))
+                .thenAnswer(invocation -> redis.put(key(invocation.getArgument(0)), invocation.getArgument(1)) == null);
+        when(stringRedisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection));
+        CacheProperties cacheProperties = new CacheProperties();
+        cacheProperties.getLocal().setEnabled(false);
+        meterRegistry = new SimpleMeterRegistry();
+        cacheClient = new CacheClient(stringRedisTemplate, mock(RedisMessageListenerContainer.class), cacheProperties,
+                new CacheRebuildScheduler(cacheProperties), new CacheMetrics(meterRegistry), redisScripts,
+                new RedisLockClient(redisScripts, mock(RedisMessageListenerContainer.class), 30_000));
+    }
+
+    private static String key(byte[] rawKey) {
+        return new String(rawKey, StandardCharsets.UTF_8);
+    }
+
+    private Shop queryDb(Long id) {
+        dbCalls.incrementAndGet();
+        try {
+            Thread.sleep(DB_COST_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new Shop().setId(id).setName("shop" + id);
+    }
+
+    @Test
+    void concurrentPassThroughMissesHitDbOnce() throws Exception {
+        long cost = runConcurrently(() -> cacheClient.queryWithPassThrough(
+                RedisConstants.CACHE_SHOP_KEY, 1L, Shop.class, this::queryDb, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES));
+        assertEquals(1, dbCalls.get());
+        //一个线程未命中去查库, 其余的都在等它
+        String prefix = RedisConstants.CACHE_SHOP_KEY;
+        assertEquals(1, meterRegistry.get("cache.requests").tags("prefix", prefix, "result", "miss").counter().count());
+        double coalesced = meterRegistry.get("cache.coalesced").tags("prefix", prefix).counter().count();
+        double redisHits = meterRegistry.get("cache.requests").tags("prefix", prefix, "result", "hit", "level", "redis").counter().count();
+        assertEquals(THREADS - 1, coalesced + redisHits);
+        assertEquals(1, meterRegistry.get("cache.load").tags("prefix", prefix, "mode", "sync").timer().count());
+        //所有线程都只等了一次数据库查询的时间, 而不是排队或者每个线程各查一次
+        assertTrue(cost < DB_COST_MILLIS * 5, "cost " + cost + "ms");
+        assertTrue(slowest.get() < DB_COST_MILLIS * 3, "slowest " + slowest.get() + "ms");
+    }
+
+    @Test
+    void concurrentMutexMissesHitDbOnce() throws Exception {
+        long cost = runConcurrently(() -> cacheClient.queryWithMutex(
+                RedisConstants.CACHE_SHOP_KEY, 2L, Shop.class, this::queryDb, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES));
+        assertEquals(1, dbCalls.get());
+        //只有一个线程执行了查缓存并抢锁的脚本, 没有线程在sleep重试, 释放锁时校验了持有者
+        verify(redisScripts, times(1)).getOrAcquireRebuildLock(anyString(), anyString(), anyString(), anyLong(), anyBoolean());
+        verify(redisScripts, times(1)).lockRelease(anyString(), anyString(), anyString(), anyLong());
+        //其余线程都在本地等第一个线程的结果, 没有各自去抢redis锁
+        assertEquals(THREADS - 1, meterRegistry.get("cache.coalesced").tags("prefix", RedisConstants.CACHE_SHOP_KEY).counter().count());
+        assertTrue(cost < DB_COST_MILLIS * 5, "cost " + cost + "ms");
+        assertTrue(slowest.get() < DB_COST_MILLIS * 3, "slowest " + slowest.get() + "ms");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void ttlIsSpreadAcrossBuckets() {
+        CacheProperties cacheProperties = new CacheProperties();
+        cacheProperties.getExpiry().setHistogramBucketSeconds(1);
+        cacheProperties.getExpiry().getPrefixJitterRatio().put(RedisConstants.CACHE_SHOP_KEY, 0.5);
+        CacheTtlPolicy policy = new CacheTtlPolicy(cacheProperties.getExpiry());
+        long ttl = TimeUnit.SECONDS.toMillis(60);
+        for (int i = 0; i < 1000; i++) {
+            long jittered = policy.ttlMillis(RedisConstants.CACHE_SHOP_KEY + i, 60, TimeUnit.SECONDS);
+            //只会延长, 不会超过配置的比例
+            assertTrue(jittered >= ttl && jittered <= ttl * 3 / 2, "ttl " + jittered);
+        }
+        Map<String, Object> shopStats = (Map<String, Object>) policy.stats().get(RedisConstants.CACHE_SHOP_KEY);
+        assertEquals(1000L, shopStats.get("scheduled"));
+        //1000个key分到30个左右的桶里, 不会挤在同一秒
+        assertTrue((Long) shopStats.get("peakBucket") < 100, "peak " + shopStats.get("peakBucket"));
+    }
+
+    private long runConcurrently(Callable<Shop> query) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Shop>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                long begin = System.currentTimeMillis();
+                Shop shop = query.call();
+                slowest.accumulateAndGet(System.currentTimeMillis() - begin, Math::max);
+                return shop;
+            }));
+        }
+        long begin = System.currentTimeMillis();
+        start.countDown();
+        for (Future<Shop> future : futures) {
+            assertNotNull(future.get(10, TimeUnit.SECONDS));
+        }
+        long cost = System.currentTimeMillis() - begin;
+        pool.shutdown();
+        return cost;
+    }
+}
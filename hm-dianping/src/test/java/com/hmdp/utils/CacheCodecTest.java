@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheCodecTest {
+    private final CacheCodec json = new JsonCacheCodec();
+    private final CacheCodec binary = new BinaryCacheCodec();
+
+    private Shop shop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L)
+                .setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123_000_000));
+    }
+
+    @Test
+    void binaryRoundTrip() {
+        Shop shop = shop();
+        assertEquals(shop, binary.decode(binary.encode(shop), Shop.class));
+        //null字段保持为null
+        Shop partial = new Shop().setId(2L);
+        assertEquals(partial, binary.decode(binary.encode(partial), Shop.class));
+    }
+
+    @Test
+    void binaryIsSmallerThanJson() {
+        int jsonSize = json.encode(shop()).length;
+        int binarySize = binary.encode(shop()).length;
+        assertTrue(binarySize < jsonSize);
+    }
+
+    @Test
+    void logicalExpireRoundTrip() {
+        LocalDateTime expireTime = LocalDateTime.of(2023, 2, 25, 15, 41, 0, 500_000_000);
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            RedisData source = new RedisData();
+            source.setData(shop());
+            source.setExpireTime(expireTime);
+            source.setRebuildMillis(35L);
+            RedisData redisData = codec.decodeWithLogicalExpire(codec.encodeWithLogicalExpire(source), Shop.class);
+            assertEquals(expireTime, redisData.getExpireTime());
+            assertEquals(shop(), redisData.getData());
+            assertEquals(35L, redisData.getRebuildMillis());
+        }
+    }
+
+    @Test
+    void logicalExpireNullDataRoundTrip() {
+        LocalDateTime expireTime = LocalDateTime.of(2023, 2, 25, 15, 41, 0);
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            RedisData source = new RedisData();
+            source.setExpireTime(expireTime);
+            RedisData redisData = codec.decodeWithLogicalExpire(codec.encodeWithLogicalExpire(source), Shop.class);
+            assertEquals(expireTime, redisData.getExpireTime());
+            assertNull(redisData.getData());
+            assertNull(redisData.getRebuildMillis());
+        }
+    }
+
+    @Test
+    void binaryRejectsOtherType() {
+        //类结构不一样, 解析失败, CacheClient会按未命中处理
+        byte[] bytes = binary.encode(new ShopType().setId(1L).setName("美食"));
+        assertThrows(IllegalStateException.class, () -> binary.decode(bytes, Shop.class));
+    }
+}
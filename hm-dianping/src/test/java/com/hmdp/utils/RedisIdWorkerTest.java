@@ -0,0 +1,112 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用mock的INCRBY(每次1ms, 模拟一次redis往返)验证号段发号的唯一性和吞吐
+ */
+class RedisIdWorkerTest {
+    private static final int THREADS = 16;
+    private static final int IDS_PER_THREAD = 100_000;
+    private static final long STEP = 1000;
+
+    private final AtomicLong counter = new AtomicLong();
+    private final AtomicInteger redisCalls = new AtomicInteger();
+    private StringRedisTemplate stringRedisTemplate;
+    private RedisIdWorker idWorker;
+    private ExecutorService pool;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString(), anyLong())).thenAnswer(invocation -> {
+            redisCalls.incrementAndGet();
+            Thread.sleep(1);
+            return counter.addAndGet(invocation.getArgument(1));
+        });
+        idWorker = new RedisIdWorker(stringRedisTemplate, STEP);
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+        idWorker.shutdown();
+    }
+
+    @Test
+    void idsAreUniqueAndOrderedAcrossThreads() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet(THREADS * IDS_PER_THREAD * 2);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                long lastTimestamp = 0;
+                for (int j = 0; j < IDS_PER_THREAD; j++) {
+                    long id = idWorker.nextId("order");
+                    assertTrue(id > 0);
+                    //同一个线程拿到的id, 时间戳部分不会倒退
+                    long timestamp = id >>> 32;
+                    assertTrue(timestamp >= lastTimestamp);
+                    lastTimestamp = timestamp;
+                    ids.add(id);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        int total = THREADS * IDS_PER_THREAD;
+        assertEquals(total, ids.size());
+        //每step个id才访问一次redis, 最后多预取一段
+        assertTrue(redisCalls.get() <= total / STEP + 2, "redis calls " + redisCalls.get());
+    }
+
+    @Test
+    void throughputComparedWithIncrPerId() throws Exception {
+        int total = 20_000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            idWorker.nextId("bench");
+        }
+        double segmentPerSecond = total / ((System.nanoTime() - begin) / 1e9);
+        //对照: 每个id一次INCR, 走同一个1ms的mock
+        int baselineTotal = 500;
+        begin = System.nanoTime();
+        for (int i = 0; i < baselineTotal; i++) {
+            stringRedisTemplate.opsForValue().increment("icr:bench", 1);
+        }
+        double incrPerSecond = baselineTotal / ((System.nanoTime() - begin) / 1e9);
+        assertTrue(segmentPerSecond > incrPerSecond * 10,
+                "segment " + segmentPerSecond + " ids/s, INCR per id " + incrPerSecond + " ids/s");
+    }
+}
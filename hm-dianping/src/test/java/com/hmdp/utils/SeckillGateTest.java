@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 验证开关按时间窗口打开和关闭, 没登记的券放行给redis判断
+ */
+class SeckillGateTest {
+    private final SeckillGate gate = new SeckillGate();
+
+    @AfterEach
+    void tearDown() {
+        gate.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void opensAtBeginAndClosesAtEnd() throws Exception {
+        //固定时钟, 定时任务由测试手动触发, 不依赖真实时间
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        Clock clock = Clock.fixed(Instant.parse("2023-03-01T04:00:00Z"), ZoneId.of("Asia/Shanghai"));
+        SeckillGate manualGate = new SeckillGate(timer, clock);
+        LocalDateTime now = LocalDateTime.now(clock);
+        manualGate.register(1L, now.plusSeconds(200), now.plusSeconds(400));
+        assertEquals(RedisScripts.SeckillResult.NOT_STARTED, manualGate.check(1L));
+
+        ArgumentCaptor<Callable<Object>> tasks = ArgumentCaptor.forClass(Callable.class);
+        ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+        verify(timer, times(2)).schedule(tasks.capture(), delays.capture(), eq(TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList(200_000L, 400_000L), delays.getAllValues());
+        tasks.getAllValues().get(0).call();
+        assertNull(manualGate.check(1L));
+        tasks.getAllValues().get(1).call();
+        assertEquals(RedisScripts.SeckillResult.ENDED, manualGate.check(1L));
+    }
+
+    @Test
+    void registersWindowAlreadyInProgress() {
+        LocalDateTime now = LocalDateTime.now();
+        gate.register(1L, now.minusMinutes(1), now.plusMinutes(1));
+        gate.register(2L, now.minusMinutes(2), now.minusMinutes(1));
+        assertNull(gate.check(1L));
+        assertEquals(RedisScripts.SeckillResult.ENDED, gate.check(2L));
+    }
+
+    @Test
+    void unknownVoucherPassesThrough() {
+        assertNull(gate.check(42L));
+        assertFalse(gate.isRegistered(42L));
+    }
+
+    @Test
+    void evictsLongEndedWindows() {
+        LocalDateTime now = LocalDateTime.now();
+        gate.register(1L, now.minusHours(2), now.minusHours(1));
+        gate.evictEnded(60_000);
+        assertFalse(gate.isRegistered(1L));
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 验证分片秒杀写stream失败时, 库存还给实际扣掉的分片, 一人一单的记录从home分片删掉
+ */
+class SeckillStockTest {
+    private static final Long VOUCHER_ID = 1L;
+    private static final Long USER_ID = 4L;
+
+    private final StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+    private final RedisScripts redisScripts = mock(RedisScripts.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+    @SuppressWarnings("unchecked")
+    private final SetOperations<String, String> setOperations = mock(SetOperations.class);
+    @SuppressWarnings("unchecked")
+    private final StreamOperations<String, Object, Object> streamOperations = mock(StreamOperations.class);
+    private SeckillStock seckillStock;
+
+    @BeforeEach
+    void setUp() {
+        when(stringRedisTemplate.opsForHash()).thenReturn(hashOperations);
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(stringRedisTemplate.opsForStream()).thenReturn(streamOperations);
+        seckillStock = new SeckillStock(stringRedisTemplate, redisScripts);
+        SeckillVoucher voucher = new SeckillVoucher();
+        voucher.setVoucherId(VOUCHER_ID);
+        voucher.setStock(10);
+        voucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        seckillStock.init(voucher, 2);
+    }
+
+    @Test
+    void returnsHomeShardStockWhenStreamWriteFails() {
+        //userId 4 的home分片是0
+        when(redisScripts.seckillShardHome(anyString(), anyString(), eq(USER_ID))).thenReturn(RedisScripts.SeckillResult.SUCCESS);
+        when(streamOperations.add(any())).thenThrow(new RedisSystemException("timeout", null));
+
+        assertEquals(RedisScripts.SeckillResult.ORDER_FAILED, seckillStock.deduct(VOUCHER_ID, USER_ID, 100L));
+        verify(hashOperations).increment(SeckillStock.shardKey(VOUCHER_ID, 0), "stock", 1);
+        verify(setOperations).remove(SeckillStock.orderKey(VOUCHER_ID, 0), USER_ID.toString());
+    }
+
+    @Test
+    void returnsSiblingShardStockWhenStreamWriteFails() {
+        when(redisScripts.seckillShardHome(anyString(), anyString(), eq(USER_ID))).thenReturn(RedisScripts.SeckillResult.SHARD_EMPTY);
+        when(redisScripts.seckillShardTake(SeckillStock.shardKey(VOUCHER_ID, 1))).thenReturn(true);
+        when(streamOperations.add(any())).thenThrow(new RedisSystemException("timeout", null));
+
+        assertEquals(RedisScripts.SeckillResult.ORDER_FAILED, seckillStock.deduct(VOUCHER_ID, USER_ID, 100L));
+        verify(hashOperations).increment(SeckillStock.shardKey(VOUCHER_ID, 1), "stock", 1);
+        verify(hashOperations, never()).increment(SeckillStock.shardKey(VOUCHER_ID, 0), "stock", 1);
+        verify(setOperations).remove(SeckillStock.orderKey(VOUCHER_ID, 0), USER_ID.toString());
+    }
+
+    @Test
+    void keepsStockWhenStreamWriteSucceeds() {
+        when(redisScripts.seckillShardHome(anyString(), anyString(), eq(USER_ID))).thenReturn(RedisScripts.SeckillResult.SUCCESS);
+
+        assertEquals(RedisScripts.SeckillResult.SUCCESS, seckillStock.deduct(VOUCHER_ID, USER_ID, 100L));
+        verify(hashOperations, never()).increment(anyString(), any(), eq(1L));
+        verify(setOperations, never()).remove(anyString(), any());
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.QueueTicket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 验证按开始时间和速率放行, 查位置只用内存, 号太靠后的提前告知
+ */
+class SeckillWaitingRoomTest {
+    private final RedisScripts redisScripts = mock(RedisScripts.class);
+    private final SeckillProperties properties = new SeckillProperties();
+    private SeckillWaitingRoom room;
+
+    @BeforeEach
+    void setUp() {
+        properties.getWaitingRoom().setEnabled(true);
+        properties.getWaitingRoom().setAdmitPerSecond(100);
+        properties.getWaitingRoom().setBurst(10);
+        properties.getWaitingRoom().setOverbookRatio(1.5);
+        room = new SeckillWaitingRoom(mock(StringRedisTemplate.class), redisScripts, mock(SoldOutRegistry.class), properties);
+    }
+
+    @Test
+    void admitsByRateSinceBegin() {
+        LocalDateTime now = LocalDateTime.now();
+        room.register(1L, now.minusSeconds(1), now.plusMinutes(1), 1000);
+        //开始1秒: 10 + 100
+        assertTrue(room.status(1L, 100).getAdmitted());
+        QueueTicket late = room.status(1L, 300);
+        assertFalse(late.getAdmitted());
+        assertTrue(late.getPosition() > 180 && late.getPosition() <= 190);
+        assertEquals(2, (long) late.getWaitSeconds());
+    }
+
+    @Test
+    void nothingAdmittedBeforeBegin() {
+        LocalDateTime now = LocalDateTime.now();
+        room.register(1L, now.plusSeconds(10), now.plusMinutes(1), 1000);
+        QueueTicket first = room.status(1L, 1);
+        assertFalse(first.getAdmitted());
+        assertEquals(1, (long) first.getPosition());
+        assertTrue(first.getWaitSeconds() >= 10);
+    }
+
+    @Test
+    void joinReusesTicketOnSameNode() {
+        LocalDateTime now = LocalDateTime.now();
+        room.register(1L, now.minusSeconds(1), now.plusMinutes(1), 1000);
+        when(redisScripts.queueJoin(anyString(), eq(7L), anyLong())).thenReturn(5L);
+        assertEquals(5L, (long) room.join(1L, 7L).getTicket());
+        assertEquals(5L, (long) room.join(1L, 7L).getTicket());
+        verify(redisScripts, times(1)).queueJoin(anyString(), eq(7L), anyLong());
+        assertNull(room.checkAdmitted(1L, 7L));
+    }
+
+    @Test
+    void hopelessBeyondOverbookedStock() {
+        LocalDateTime now = LocalDateTime.now();
+        room.register(1L, now.minusSeconds(1), now.plusMinutes(1), 100);
+        assertFalse(room.isHopeless(1L, 150));
+        assertTrue(room.isHopeless(1L, 151));
+    }
+
+    @Test
+    void unmanagedVoucherPassesThrough() {
+        properties.getWaitingRoom().setEnabled(false);
+        LocalDateTime now = LocalDateTime.now();
+        room.register(1L, now.minusSeconds(1), now.plusMinutes(1), 100);
+        assertFalse(room.isManaged(1L));
+        assertNull(room.join(1L, 7L));
+        assertNull(room.checkAdmitted(1L, 7L));
+    }
+}
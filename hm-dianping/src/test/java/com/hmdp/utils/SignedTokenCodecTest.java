@@ -0,0 +1,49 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SignedTokenCodecTest {
+    private final SignedTokenCodec codec = new SignedTokenCodec("0123456789abcdef0123456789abcdef");
+
+    private static SignedToken token(long expireAt) {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("小鱼同学");
+        user.setIcon("/imgs/icons/user5.png");
+        return new SignedToken(user, expireAt, "jti-1");
+    }
+
+    @Test
+    void roundTrip() {
+        String encoded = codec.encode(token(System.currentTimeMillis() + 60_000));
+        assertTrue(SignedTokenCodec.isSignedToken(encoded));
+        SignedToken decoded = codec.decode(encoded);
+        assertNotNull(decoded);
+        assertEquals(1010L, decoded.getUser().getId());
+        assertEquals("小鱼同学", decoded.getUser().getNickName());
+        assertEquals("/imgs/icons/user5.png", decoded.getUser().getIcon());
+        assertEquals("jti-1", decoded.getJti());
+    }
+
+    @Test
+    void rejectsTamperedExpiredAndForeignTokens() {
+        String encoded = codec.encode(token(System.currentTimeMillis() + 60_000));
+        //改了payload, 签名就对不上
+        String payload = encoded.substring(0, encoded.indexOf('.'));
+        String signature = encoded.substring(encoded.indexOf('.'));
+        char last = payload.charAt(payload.length() - 2);
+        String tampered = payload.substring(0, payload.length() - 2) + (last == 'A' ? 'B' : 'A') + payload.charAt(payload.length() - 1) + signature;
+        assertNull(codec.decode(tampered));
+        assertNull(codec.decode(codec.encode(token(System.currentTimeMillis() - 1))));
+        assertNull(new SignedTokenCodec("fedcba9876543210fedcba9876543210").decode(encoded));
+        assertNull(codec.decode("not.base64!"));
+        assertFalse(SignedTokenCodec.isSignedToken("3f2a9c0e5b8d4e1fa7c6b5d4e3f2a1b0"));
+    }
+}